@@ -0,0 +1,295 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Car records split into one ledger key per field, {@code carField~id~field}, holding the JSON value of the field.
+ *
+ * Reading some fields of a car reads only their keys, and a patch writes only the fields whose value changes, so
+ * transactions changing different fields of the same car do not conflict. Every record has an {@code id} field, whose
+ * key tells whether the car is stored split. Cars still stored as a whole document under {@code car~id} are read as
+ * they are and split on their first write.
+ */
+class CarFields {
+
+    static final String CAR_FIELD = "carField";
+    static final String ID = "id";
+    private static final String MAX_UNICODE_RUNE = "\udbff\udfff";
+
+    /**
+     * The whole record, or {@code null} if the car is unknown.
+     */
+    JsonObject read(ChaincodeStub stub, String id) {
+        JsonObjectBuilder car = Json.createObjectBuilder();
+        boolean found = false;
+        try (QueryResultsIterator<KeyValue> fields = stub.getStateByPartialCompositeKey(stub.createCompositeKey(CAR_FIELD, id).toString())) {
+            for (KeyValue field : fields) {
+                List<String> attributes = stub.splitCompositeKey(field.getKey()).getAttributes();
+                car.add(attributes.get(attributes.size() - 1), value(field.getStringValue()));
+                found = true;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return found ? car.build() : readDocument(stub, id);
+    }
+
+    /**
+     * Only the requested fields of the record; fields the car does not have are left out.
+     *
+     * @throws IllegalArgumentException if the car is unknown
+     */
+    JsonObject read(ChaincodeStub stub, String id, Collection<String> fields) {
+        if (stub.getState(fieldKey(stub, id, ID)) == null) {
+            JsonObject document = readDocument(stub, id);
+            if (document == null) {
+                throw new IllegalArgumentException("Unknown car " + id);
+            }
+            return project(document, fields);
+        }
+
+        JsonObjectBuilder car = Json.createObjectBuilder();
+        for (String field : fields) {
+            byte[] value = stub.getState(fieldKey(stub, id, field));
+            if (value != null && value.length > 0) {
+                car.add(field, value(new String(value, UTF_8)));
+            }
+        }
+        return car.build();
+    }
+
+    /**
+     * Stores a record in place of {@code existing}, writing the fields that differ and deleting those it no longer has.
+     * A car still stored as a whole document is split, which writes all of its fields.
+     *
+     * @param fromLedger whether {@code existing} was read from the ledger, rather than written earlier in the same
+     * transaction, whose writes the ledger reads do not see yet
+     */
+    void write(ChaincodeStub stub, String id, JsonObject record, JsonObject existing, boolean fromLedger) {
+        if (existing != null && fromLedger && isDocument(stub, id)) {
+            stub.delState(CarManagementChaincode.carKey(stub, id));
+            existing = null;
+        }
+        for (Map.Entry<String, JsonValue> field : record.entrySet()) {
+            if (existing == null || !field.getValue().equals(existing.get(field.getKey()))) {
+                stub.putState(fieldKey(stub, id, field.getKey()), field.getValue().toString().getBytes(UTF_8));
+            }
+        }
+        if (existing != null) {
+            for (String field : existing.keySet()) {
+                if (!record.containsKey(field)) {
+                    stub.delState(fieldKey(stub, id, field));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a patch: each field of {@code patch} is set to its value, or removed if the value is {@code null}.
+     *
+     * @return the previous values of the fields that changed, {@code null} for fields that did not exist
+     * @throws IllegalArgumentException if the car is unknown or the patch changes its id
+     */
+    JsonObject patch(ChaincodeStub stub, String id, JsonObject patch) {
+        if (patch.containsKey(ID) && !patch.get(ID).equals(Json.createValue(id))) {
+            throw new IllegalArgumentException("The id of car " + id + " cannot be changed");
+        }
+
+        if (stub.getState(fieldKey(stub, id, ID)) == null) {
+            JsonObject document = readDocument(stub, id);
+            if (document == null) {
+                throw new IllegalArgumentException("Unknown car " + id);
+            }
+            JsonObjectBuilder patched = Json.createObjectBuilder(document);
+            patch.forEach((field, value) -> {
+                if (value == JsonValue.NULL) {
+                    patched.remove(field);
+                } else {
+                    patched.add(field, value);
+                }
+            });
+            write(stub, id, patched.build(), document, true);
+            return changes(document, patch);
+        }
+
+        JsonObjectBuilder previous = Json.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> field : patch.entrySet()) {
+            String key = fieldKey(stub, id, field.getKey());
+            byte[] stored = stub.getState(key);
+            JsonValue current = stored == null || stored.length == 0 ? JsonValue.NULL : value(new String(stored, UTF_8));
+            if (current.equals(field.getValue())) {
+                continue;
+            }
+            if (field.getValue() == JsonValue.NULL) {
+                stub.delState(key);
+            } else {
+                stub.putState(key, field.getValue().toString().getBytes(UTF_8));
+            }
+            previous.add(field.getKey(), current);
+        }
+        return previous.build();
+    }
+
+    /**
+     * All cars, split and whole document ones, as a JSON array in the order of their ids.
+     */
+    JsonArrayBuilder readAll(ChaincodeStub stub) {
+        return readRange(stub, "", "", 0).cars;
+    }
+
+    /**
+     * The cars with an id in {@code [startId, endId)}, split and whole document ones merged in the order of their ids.
+     *
+     * @param endId the exclusive end, empty for none
+     * @param limit the maximum number of cars, 0 for all
+     */
+    Page readRange(ChaincodeStub stub, String startId, String endId, int limit) {
+        JsonArrayBuilder cars = Json.createArrayBuilder();
+        try (QueryResultsIterator<KeyValue> fields = stub.getStateByRange(rangeStart(stub, CAR_FIELD, startId), rangeEnd(stub, CAR_FIELD, endId));
+             QueryResultsIterator<KeyValue> documents = stub.getStateByRange(rangeStart(stub, CarManagementChaincode.CAR, startId), rangeEnd(stub, CarManagementChaincode.CAR, endId))) {
+            SplitCars splitCars = new SplitCars(stub, fields.iterator());
+            Iterator<KeyValue> documentIterator = documents.iterator();
+            KeyValue document = documentIterator.hasNext() ? documentIterator.next() : null;
+            int count = 0;
+            while (splitCars.nextId != null || document != null) {
+                String documentId = document == null ? null : stub.splitCompositeKey(document.getKey()).getAttributes().get(0);
+                boolean documentFirst = documentId != null && (splitCars.nextId == null || documentId.compareTo(splitCars.nextId) < 0);
+                if (limit > 0 && count == limit) {
+                    return new Page(cars, documentFirst ? documentId : splitCars.nextId);
+                }
+                if (documentFirst) {
+                    cars.add(CarManagementChaincode.parse(document.getStringValue()));
+                    document = documentIterator.hasNext() ? documentIterator.next() : null;
+                } else {
+                    // a document left over next to the fields of the same car is stale
+                    boolean stale = splitCars.nextId.equals(documentId);
+                    cars.add(splitCars.next());
+                    if (stale) {
+                        document = documentIterator.hasNext() ? documentIterator.next() : null;
+                    }
+                }
+                count++;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return new Page(cars, "");
+    }
+
+    /**
+     * Range bounds in the form of {@link ChaincodeStub#getStateByPartialCompositeKey}, which also scans a range.
+     */
+    private static String rangeStart(ChaincodeStub stub, String objectType, String id) {
+        return id.isEmpty() ? stub.createCompositeKey(objectType).toString() : stub.createCompositeKey(objectType, id).toString();
+    }
+
+    private static String rangeEnd(ChaincodeStub stub, String objectType, String id) {
+        return id.isEmpty() ? stub.createCompositeKey(objectType).toString() + MAX_UNICODE_RUNE : stub.createCompositeKey(objectType, id).toString();
+    }
+
+    /**
+     * Groups the consecutive field keys of a range scan into cars.
+     */
+    private static final class SplitCars {
+
+        private final ChaincodeStub stub;
+        private final Iterator<KeyValue> fields;
+        private KeyValue pending;
+        private String nextId;
+
+        SplitCars(ChaincodeStub stub, Iterator<KeyValue> fields) {
+            this.stub = stub;
+            this.fields = fields;
+            advance();
+        }
+
+        JsonObject next() {
+            String id = nextId;
+            JsonObjectBuilder car = Json.createObjectBuilder();
+            while (nextId != null && nextId.equals(id)) {
+                List<String> attributes = stub.splitCompositeKey(pending.getKey()).getAttributes();
+                car.add(attributes.get(1), value(pending.getStringValue()));
+                advance();
+            }
+            return car.build();
+        }
+
+        private void advance() {
+            pending = fields.hasNext() ? fields.next() : null;
+            nextId = pending == null ? null : stub.splitCompositeKey(pending.getKey()).getAttributes().get(0);
+        }
+    }
+
+    static final class Page {
+
+        final JsonArrayBuilder cars;
+        /**
+         * The id of the first car left out, empty if there is none.
+         */
+        final String bookmark;
+
+        Page(JsonArrayBuilder cars, String bookmark) {
+            this.cars = cars;
+            this.bookmark = bookmark;
+        }
+    }
+
+    private static JsonObject changes(JsonObject before, JsonObject patch) {
+        JsonObjectBuilder previous = Json.createObjectBuilder();
+        patch.forEach((field, value) -> {
+            JsonValue current = before.containsKey(field) ? before.get(field) : JsonValue.NULL;
+            if (!current.equals(value)) {
+                previous.add(field, current);
+            }
+        });
+        return previous.build();
+    }
+
+    private static JsonObject project(JsonObject car, Collection<String> fields) {
+        JsonObjectBuilder projection = Json.createObjectBuilder();
+        for (String field : fields) {
+            if (car.containsKey(field)) {
+                projection.add(field, car.get(field));
+            }
+        }
+        return projection.build();
+    }
+
+    private static boolean isDocument(ChaincodeStub stub, String id) {
+        byte[] document = stub.getState(CarManagementChaincode.carKey(stub, id));
+        return document != null && document.length > 0;
+    }
+
+    private static JsonObject readDocument(ChaincodeStub stub, String id) {
+        byte[] document = stub.getState(CarManagementChaincode.carKey(stub, id));
+        return document == null || document.length == 0 ? null : CarManagementChaincode.parse(new String(document, UTF_8));
+    }
+
+    static String fieldKey(ChaincodeStub stub, String id, String field) {
+        return stub.createCompositeKey(CAR_FIELD, id, field).toString();
+    }
+
+    static JsonValue value(String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readValue();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid car field: " + json, e);
+        }
+    }
+}
@@ -1,37 +1,254 @@
 package com.samapartners.workshop.chaincode;
 
-import org.hyperledger.fabric.shim.Chaincode;
-import org.hyperledger.fabric.shim.ChaincodeBase;
 import org.hyperledger.fabric.shim.ChaincodeStub;
 
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Created by alacambra on 29.11.17.
  */
-public class CarManagementChaincode extends ChaincodeBase {
+public class CarManagementChaincode extends InstrumentedChaincode {
+
+    static final String CAR = "car";
+    static final String ALL_CARS = "all";
+
+    /**
+     * Car fields whose values must be in a reference set, by the name of the set. A set that was never stored allows
+     * any value.
+     */
+    static final Map<String, String> REFERENCE_FIELDS = referenceFields();
+
+    private final DeltaCounters carCounts = new DeltaCounters("carCount");
+    private final CarFields carFields = new CarFields();
+    private final ReferenceData referenceData = new ReferenceData();
+
     @Override
     public Response init(ChaincodeStub chaincodeStub) {
-        return null;
+        System.out.println("Car management chaincode started");
+        return newSuccessResponse("all ok", "all Ok".getBytes());
     }
 
     @Override
-    public Response invoke(ChaincodeStub chaincodeStub) {
-        return null;
+    protected Response doInvoke(ChaincodeStub chaincodeStub) {
+        String function = chaincodeStub.getFunction();
+        List<String> args = chaincodeStub.getParameters();
+
+        try {
+            switch (function) {
+                case "queryAllCars":
+                    return newSuccessResponse("all ok", queryAllCars(chaincodeStub));
+                case "queryCarRange":
+                    return newSuccessResponse("all ok", queryCarRange(chaincodeStub, args.get(0), args.get(1), Integer.parseInt(args.get(2))));
+                case "createCar":
+                    return newSuccessResponse("all ok", createCar(chaincodeStub, args));
+                case "queryCarProperties":
+                    return newSuccessResponse("all ok", queryCarProperties(chaincodeStub, args.get(0)));
+                case "queryCarFields":
+                    return newSuccessResponse("all ok", queryCarFields(chaincodeStub, args.get(0), args.subList(1, args.size())));
+                case "transferCar":
+                    return newSuccessResponse("all ok", patchCar(chaincodeStub, args.get(0),
+                            Json.createObjectBuilder().add("owner", args.get(1)).build()));
+                case "patchCar":
+                    return newSuccessResponse("all ok", patchCar(chaincodeStub, args.get(0), parse(args.get(1))));
+                case "queryCarCount":
+                    return newSuccessResponse("all ok", queryCarCount(chaincodeStub, args.isEmpty() ? ALL_CARS : ownerScope(args.get(0))));
+                case "compactCarCounts":
+                    return newSuccessResponse("all ok", compactCarCounts(chaincodeStub));
+                case "putReferenceData":
+                    return newSuccessResponse("all ok", putReferenceData(chaincodeStub, args.get(0), args.get(1)));
+                case "queryReferenceData":
+                    return newSuccessResponse("all ok", queryReferenceData(chaincodeStub, args.get(0)));
+                default:
+                    return newErrorResponse("no valid function executed: " + function);
+            }
+        } catch (IllegalArgumentException e) {
+            return newErrorResponse(e.getMessage());
+        }
+    }
+
+
+    private byte[] queryAllCars(ChaincodeStub stub) {
+        return Json.createObjectBuilder().add("cars", carFields.readAll(stub)).build().toString().getBytes(UTF_8);
+    }
+
+    /**
+     * A page of the cars with an id in {@code [startId, endId)} in the order of their ids, in the form of a paginated
+     * query: {@code {"records": [...], "bookmark": "..."}}, where the bookmark is the id to continue from, empty after
+     * the last page. Clients scan disjoint ranges of the ids in parallel.
+     */
+    private byte[] queryCarRange(ChaincodeStub stub, String startId, String endId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+        CarFields.Page page = carFields.readRange(stub, startId, endId, pageSize);
+        return Json.createObjectBuilder().add("records", page.cars).add("bookmark", page.bookmark).build().toString().getBytes(UTF_8);
     }
 
+    /**
+     * Stores every argument as a car record. Existing records are overwritten, so a batch can be safely sent again.
+     */
+    private byte[] createCar(ChaincodeStub stub, List<String> cars) {
+        Map<String, Long> countDeltas = new HashMap<>();
+        // reads do not see the writes of the same transaction, so repeated ids in a batch are tracked here
+        Map<String, JsonObject> written = new HashMap<>();
+        ReferenceData.Snapshot reference = referenceData.snapshot(stub);
+        for (String car : cars) {
+            JsonObject record = parse(car);
+            String id = record.getString("id", "");
+            if (id.isEmpty()) {
+                throw new IllegalArgumentException("Car without id: " + car);
+            }
+            validate(reference, record);
 
-    private void queryAllCars(ChaincodeStub stub){
+            boolean repeated = written.containsKey(id);
+            JsonObject existing = repeated ? written.get(id) : carFields.read(stub, id);
+            if (existing == null) {
+                countDeltas.merge(ALL_CARS, 1L, Long::sum);
+            } else {
+                countDeltas.merge(ownerScope(existing.getString("owner", "")), -1L, Long::sum);
+            }
+            countDeltas.merge(ownerScope(record.getString("owner", "")), 1L, Long::sum);
 
+            carFields.write(stub, id, record, existing, !repeated);
+            written.put(id, record);
+        }
+        carCounts.add(stub, countDeltas);
+        return Json.createObjectBuilder().add("created", cars.size()).build().toString().getBytes(UTF_8);
     }
 
-    private void createCar(ChaincodeStub stub){
+    private byte[] queryCarProperties(ChaincodeStub stub, String id) {
+        JsonObject car = carFields.read(stub, id);
+        if (car == null) {
+            throw new IllegalArgumentException("Unknown car " + id);
+        }
+        return car.toString().getBytes(UTF_8);
+    }
 
+    /**
+     * Only the requested fields of a car, all of them if none are requested.
+     */
+    private byte[] queryCarFields(ChaincodeStub stub, String id, List<String> fields) {
+        if (fields.isEmpty()) {
+            return queryCarProperties(stub, id);
+        }
+        return carFields.read(stub, id, fields).toString().getBytes(UTF_8);
     }
 
-    private void queryCarProperties(ChaincodeStub stub){
+    /**
+     * Sets the fields of the patch, removing those set to {@code null}, and writes only the fields that change.
+     *
+     * @return the id and the new values of the changed fields
+     */
+    private byte[] patchCar(ChaincodeStub stub, String id, JsonObject patch) {
+        validate(referenceData.snapshot(stub), patch);
+        JsonObject previous = carFields.patch(stub, id, patch);
+
+        if (previous.containsKey("owner")) {
+            Map<String, Long> countDeltas = new HashMap<>();
+            JsonValue oldOwner = previous.get("owner");
+            JsonValue newOwner = patch.get("owner");
+            countDeltas.merge(ownerScope(oldOwner instanceof JsonString ? ((JsonString) oldOwner).getString() : ""), -1L, Long::sum);
+            countDeltas.merge(ownerScope(newOwner instanceof JsonString ? ((JsonString) newOwner).getString() : ""), 1L, Long::sum);
+            carCounts.add(stub, countDeltas);
+        }
+
+        JsonObjectBuilder changed = Json.createObjectBuilder();
+        for (String field : previous.keySet()) {
+            changed.add(field, patch.get(field));
+        }
+        return Json.createObjectBuilder().add("id", id).add("changed", changed).build().toString().getBytes(UTF_8);
+    }
 
+    private byte[] queryCarCount(ChaincodeStub stub, String scope) {
+        return Json.createObjectBuilder()
+                .add("scope", scope)
+                .add("count", carCounts.get(stub, scope))
+                .build().toString().getBytes(UTF_8);
     }
 
-    private void transferCar(ChaincodeStub stub){
+    /**
+     * Folds the count deltas into their base values. Meant to be invoked periodically by an operator or a scheduler.
+     */
+    private byte[] compactCarCounts(ChaincodeStub stub) {
+        JsonObjectBuilder counts = Json.createObjectBuilder();
+        carCounts.compact(stub, null).forEach(counts::add);
+        return Json.createObjectBuilder().add("compacted", counts).build().toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Checks the reference fields of a record or patch against their sets; removed fields are not checked.
+     */
+    private static void validate(ReferenceData.Snapshot reference, JsonObject car) {
+        for (Map.Entry<String, String> field : REFERENCE_FIELDS.entrySet()) {
+            JsonValue value = car.get(field.getKey());
+            if (!(value instanceof JsonString)) {
+                continue;
+            }
+            Set<String> allowed = reference.get(field.getValue());
+            if (!allowed.isEmpty() && !allowed.contains(((JsonString) value).getString())) {
+                throw new IllegalArgumentException(String.format("Invalid %s %s", field.getKey(), value));
+            }
+        }
+    }
+
+    private byte[] putReferenceData(ChaincodeStub stub, String name, String values) {
+        JsonArray array;
+        try (JsonReader reader = Json.createReader(new StringReader(values))) {
+            array = reader.readArray();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid reference data: " + values, e);
+        }
+        referenceData.put(stub, name, array);
+        return Json.createObjectBuilder().add("name", name).add("values", array.size()).build().toString().getBytes(UTF_8);
+    }
+
+    private byte[] queryReferenceData(ChaincodeStub stub, String name) {
+        JsonArrayBuilder values = Json.createArrayBuilder();
+        referenceData.snapshot(stub).get(name).forEach(values::add);
+        return Json.createObjectBuilder().add("name", name).add("values", values).build().toString().getBytes(UTF_8);
+    }
+
+    private static Map<String, String> referenceFields() {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("make", "makes");
+        fields.put("model", "models");
+        fields.put("colour", "colours");
+        fields.put("owner", "owners");
+        return Collections.unmodifiableMap(fields);
+    }
+
+    static String ownerScope(String owner) {
+        return "owner:" + owner;
+    }
+
+    static String carKey(ChaincodeStub stub, String id) {
+        return stub.createCompositeKey(CAR, id).toString();
+    }
+
+    static JsonObject parse(String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid car record: " + json, e);
+        }
+    }
 
+    public static void main(String[] args) {
+        new CarManagementChaincode().start(args);
     }
 }
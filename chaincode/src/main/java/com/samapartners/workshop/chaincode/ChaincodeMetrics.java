@@ -0,0 +1,136 @@
+package com.samapartners.workshop.chaincode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per function execution statistics of a chaincode process.
+ *
+ * Latencies are kept in power-of-two microsecond buckets, so recording is a couple of atomic increments and
+ * the summary can still report approximate percentiles. A compact summary is printed every
+ * {@code summaryIntervalMillis} and every call slower than {@code slowCallMillis} is printed with its details.
+ */
+public class ChaincodeMetrics {
+
+    static final String SUMMARY_INTERVAL_ENV = "CHAINCODE_METRICS_SUMMARY_INTERVAL_MS";
+    static final String SLOW_CALL_ENV = "CHAINCODE_METRICS_SLOW_CALL_MS";
+
+    private static final int BUCKETS = 32;
+
+    private final Map<String, FunctionStats> functions = new ConcurrentHashMap<>();
+    private final long summaryIntervalNanos;
+    private final long slowCallNanos;
+    private final AtomicLong nextSummary;
+
+    public ChaincodeMetrics(long summaryIntervalMillis, long slowCallMillis) {
+        this.summaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(summaryIntervalMillis);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.nextSummary = new AtomicLong(System.nanoTime() + summaryIntervalNanos);
+    }
+
+    public static ChaincodeMetrics fromEnvironment() {
+        return new ChaincodeMetrics(
+                readLong(SUMMARY_INTERVAL_ENV, 60_000L),
+                readLong(SLOW_CALL_ENV, 200L));
+    }
+
+    private static long readLong(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println(String.format("Ignoring invalid %s=%s", name, value));
+            return defaultValue;
+        }
+    }
+
+    public void record(String function, String txId, long durationNanos, long gets, long puts, long requestBytes, long responseBytes) {
+        functions.computeIfAbsent(function, FunctionStats::new)
+                .record(durationNanos, gets, puts, requestBytes, responseBytes);
+
+        if (durationNanos >= slowCallNanos) {
+            System.out.println(String.format(
+                    "Slow call: function=%s, txId=%s, time=%dus, getState=%d, putState=%d, requestBytes=%d, responseBytes=%d",
+                    function, txId, TimeUnit.NANOSECONDS.toMicros(durationNanos), gets, puts, requestBytes, responseBytes));
+        }
+
+        long now = System.nanoTime();
+        long next = nextSummary.get();
+        if (now - next >= 0 && nextSummary.compareAndSet(next, now + summaryIntervalNanos)) {
+            System.out.println(summary());
+        }
+    }
+
+    public String summary() {
+        List<String> names = new ArrayList<>(functions.keySet());
+        names.sort(String::compareTo);
+
+        StringBuilder sb = new StringBuilder("Chaincode metrics:");
+        for (String name : names) {
+            sb.append("\n  ").append(functions.get(name));
+        }
+        return sb.toString();
+    }
+
+    static final class FunctionStats {
+
+        private final String function;
+        private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong gets = new AtomicLong();
+        private final AtomicLong puts = new AtomicLong();
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+
+        FunctionStats(String function) {
+            this.function = function;
+        }
+
+        void record(long durationNanos, long gets, long puts, long requestBytes, long responseBytes) {
+            long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(durationNanos));
+            latencyBuckets.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+            calls.incrementAndGet();
+            totalNanos.addAndGet(durationNanos);
+            maxNanos.accumulateAndGet(durationNanos, Math::max);
+            this.gets.addAndGet(gets);
+            this.puts.addAndGet(puts);
+            this.requestBytes.addAndGet(requestBytes);
+            this.responseBytes.addAndGet(responseBytes);
+        }
+
+        /**
+         * Upper bound in microseconds of the bucket holding the given percentile.
+         */
+        long percentileMicros(double percentile) {
+            long total = calls.get();
+            long threshold = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += latencyBuckets.get(i);
+                if (seen >= threshold && seen > 0) {
+                    return 1L << (i + 1);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            long count = calls.get();
+            long avgMicros = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / count);
+            return String.format("%s: calls=%d, avg=%dus, p50<%dus, p99<%dus, max=%dus, getState=%d, putState=%d, requestBytes=%d, responseBytes=%d",
+                    function, count, avgMicros, percentileMicros(0.5), percentileMicros(0.99),
+                    TimeUnit.NANOSECONDS.toMicros(maxNanos.get()), gets.get(), puts.get(), requestBytes.get(), responseBytes.get());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Execution spans of traced invocations.
+ *
+ * A client samples an invocation for tracing by appending {@value #TRACE_SUFFIX} to its function, which shims of any
+ * version can see; unsampled invocations record nothing. The span of a sampled invocation is kept under the trace id
+ * from the transient entry {@value #TRACE_CONTEXT}, or under its transaction id, which the client knows as well, on
+ * shims before 1.1 that cannot read the transient map. Spans stay in memory, for the last {@code maxTraces} traces,
+ * until the client collects them with the {@value #TRACES_FUNCTION} query, many traces per query. Spans are not part
+ * of the response, so endorsements of different peers stay equal.
+ */
+public class ChaincodeTracing {
+
+    public static final String TRACE_CONTEXT = "trace-context";
+    public static final String TRACES_FUNCTION = "__traces";
+    public static final String TRACE_SUFFIX = "#trace";
+
+    static final String MAX_TRACES_ENV = "CHAINCODE_TRACING_MAX_TRACES";
+
+    private final Map<String, List<JsonObject>> spans;
+
+    public ChaincodeTracing(final int maxTraces) {
+        this.spans = new LinkedHashMap<String, List<JsonObject>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<JsonObject>> eldest) {
+                return size() > maxTraces;
+            }
+        };
+    }
+
+    public static ChaincodeTracing fromEnvironment() {
+        String value = System.getenv(MAX_TRACES_ENV);
+        int maxTraces = 1024;
+        if (value != null && !value.isEmpty()) {
+            try {
+                maxTraces = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println(String.format("Ignoring invalid %s=%s", MAX_TRACES_ENV, value));
+            }
+        }
+        return new ChaincodeTracing(maxTraces);
+    }
+
+    /**
+     * The key to record the span of a sampled invocation under.
+     *
+     * @return the trace id sent by the client, or the transaction id if the shim cannot read it
+     */
+    public String traceId(ChaincodeStub stub) {
+        byte[] traceId = Transients.of(stub).get(TRACE_CONTEXT);
+        return traceId == null ? stub.getTxId() : new String(traceId, UTF_8);
+    }
+
+    public void record(String traceId, String function, String txId, long startEpochMicros, long durationNanos, long gets, long puts) {
+        JsonObject span = Json.createObjectBuilder()
+                .add("name", "chaincode." + function)
+                .add("txId", txId)
+                .add("start", startEpochMicros)
+                .add("duration", TimeUnit.NANOSECONDS.toMicros(durationNanos))
+                .add("getState", gets)
+                .add("putState", puts)
+                .build();
+        synchronized (spans) {
+            List<JsonObject> traceSpans = spans.get(traceId);
+            if (traceSpans == null) {
+                traceSpans = new ArrayList<>();
+                spans.put(traceId, traceSpans);
+            }
+            traceSpans.add(span);
+        }
+    }
+
+    /**
+     * Hands out and forgets the spans kept under any of the keys, trace or transaction ids, as one JSON array.
+     */
+    public byte[] collect(List<String> keys) {
+        JsonArrayBuilder array = Json.createArrayBuilder();
+        for (String key : keys) {
+            List<JsonObject> keySpans;
+            synchronized (spans) {
+                keySpans = spans.remove(key);
+            }
+            if (keySpans != null) {
+                for (JsonObject span : keySpans) {
+                    array.add(span);
+                }
+            }
+        }
+        return array.build().toString().getBytes(UTF_8);
+    }
+}
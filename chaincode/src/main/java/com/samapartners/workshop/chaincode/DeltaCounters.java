@@ -0,0 +1,95 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.CompositeKey;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Counters kept as per transaction deltas, so that updating them never reads a shared key.
+ *
+ * A transaction writes its change of a counter under {@code <name>Delta~scope~txId}; writers therefore never conflict
+ * with each other. The value of a counter is its base value under {@code <name>~scope} plus the sum of its deltas.
+ * {@link #compact(ChaincodeStub, String)} folds the deltas into the base value to keep reads short.
+ */
+public class DeltaCounters {
+
+    private final String baseType;
+    private final String deltaType;
+
+    public DeltaCounters(String name) {
+        this.baseType = name;
+        this.deltaType = name + "Delta";
+    }
+
+    /**
+     * Writes one delta per scope for the current transaction. Scopes whose delta is zero are skipped.
+     */
+    public void add(ChaincodeStub stub, Map<String, Long> deltas) {
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                String key = stub.createCompositeKey(deltaType, delta.getKey(), stub.getTxId()).toString();
+                stub.putState(key, Long.toString(delta.getValue()).getBytes(UTF_8));
+            }
+        }
+    }
+
+    public long get(ChaincodeStub stub, String scope) {
+        long value = base(stub, scope);
+        for (KeyValue delta : deltas(stub, scope)) {
+            value += Long.parseLong(delta.getStringValue());
+        }
+        return value;
+    }
+
+    /**
+     * Folds the deltas of a scope, or of every scope if {@code scope} is {@code null}, into their base values.
+     *
+     * @return the compacted values by scope
+     */
+    public Map<String, Long> compact(ChaincodeStub stub, String scope) {
+        Map<String, Long> sums = new TreeMap<>();
+        List<String> compacted = new ArrayList<>();
+
+        for (KeyValue delta : deltas(stub, scope)) {
+            CompositeKey key = stub.splitCompositeKey(delta.getKey());
+            sums.merge(key.getAttributes().get(0), Long.parseLong(delta.getStringValue()), Long::sum);
+            compacted.add(delta.getKey());
+        }
+
+        for (Map.Entry<String, Long> sum : sums.entrySet()) {
+            long value = base(stub, sum.getKey()) + sum.getValue();
+            sum.setValue(value);
+            stub.putState(stub.createCompositeKey(baseType, sum.getKey()).toString(), Long.toString(value).getBytes(UTF_8));
+        }
+        for (String key : compacted) {
+            stub.delState(key);
+        }
+        return sums;
+    }
+
+    private long base(ChaincodeStub stub, String scope) {
+        byte[] value = stub.getState(stub.createCompositeKey(baseType, scope).toString());
+        return value == null || value.length == 0 ? 0 : Long.parseLong(new String(value, UTF_8));
+    }
+
+    private List<KeyValue> deltas(ChaincodeStub stub, String scope) {
+        CompositeKey prefix = scope == null ? stub.createCompositeKey(deltaType) : stub.createCompositeKey(deltaType, scope);
+        List<KeyValue> deltas = new ArrayList<>();
+        try (QueryResultsIterator<KeyValue> results = stub.getStateByPartialCompositeKey(prefix.toString())) {
+            for (KeyValue keyValue : results) {
+                deltas.add(keyValue);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return deltas;
+    }
+}
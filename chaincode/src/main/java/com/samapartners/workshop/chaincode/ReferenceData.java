@@ -0,0 +1,113 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Named sets of reference values, such as the valid colours, cached in the chaincode process.
+ *
+ * Each set is stored as a JSON array under {@code reference~name}. Every write of a set also writes the transaction id
+ * to the single version key {@value #VERSION_KEY}, and a transaction reads only that key to validate the cache. The
+ * version key is in the read set of the transaction, so if the reference data changes before it commits the
+ * transaction fails validation like any other stale read, and peers endorsing at the same version see the same values.
+ * One chaincode process can serve several channels, each at its own version, so the caches of the
+ * {@value #MAX_VERSIONS} most recently used versions are kept.
+ */
+class ReferenceData {
+
+    static final String REFERENCE = "reference";
+    static final String VERSION_KEY = "referenceVersion";
+    static final int MAX_VERSIONS = 16;
+
+    private final Map<String, Cache> caches = Collections.synchronizedMap(new LinkedHashMap<String, Cache>(MAX_VERSIONS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cache> eldest) {
+            return size() > MAX_VERSIONS;
+        }
+    });
+
+    /**
+     * The cache validated against the version on the ledger of the current transaction.
+     */
+    Snapshot snapshot(ChaincodeStub stub) {
+        byte[] stored = stub.getState(VERSION_KEY);
+        String version = stored == null ? "" : new String(stored, UTF_8);
+        return new Snapshot(stub, caches.computeIfAbsent(version, Cache::new));
+    }
+
+    /**
+     * Replaces a set and moves the version on, which invalidates the caches of all chaincode processes.
+     */
+    void put(ChaincodeStub stub, String name, JsonArray values) {
+        for (JsonValue value : values) {
+            if (!(value instanceof JsonString)) {
+                throw new IllegalArgumentException("Reference values must be strings: " + values);
+            }
+        }
+        stub.putState(key(stub, name), values.toString().getBytes(UTF_8));
+        stub.putState(VERSION_KEY, stub.getTxId().getBytes(UTF_8));
+    }
+
+    private static String key(ChaincodeStub stub, String name) {
+        return stub.createCompositeKey(REFERENCE, name).toString();
+    }
+
+    private static final class Cache {
+
+        private final String version;
+        private final Map<String, Set<String>> sets = new ConcurrentHashMap<>();
+
+        Cache(String version) {
+            this.version = version;
+        }
+    }
+
+    static final class Snapshot {
+
+        private final ChaincodeStub stub;
+        private final Cache cache;
+
+        private Snapshot(ChaincodeStub stub, Cache cache) {
+            this.stub = stub;
+            this.cache = cache;
+        }
+
+        /**
+         * The values of a set, empty if it was never stored. Read from the ledger only on the first use per version.
+         */
+        Set<String> get(String name) {
+            if (cache.version.isEmpty()) {
+                return Collections.emptySet();
+            }
+            return cache.sets.computeIfAbsent(name, this::load);
+        }
+
+        private Set<String> load(String name) {
+            byte[] stored = stub.getState(key(stub, name));
+            if (stored == null || stored.length == 0) {
+                return Collections.emptySet();
+            }
+            Set<String> values = new LinkedHashSet<>();
+            try (JsonReader reader = Json.createReader(new StringReader(new String(stored, UTF_8)))) {
+                for (JsonValue value : reader.readArray()) {
+                    values.add(((JsonString) value).getString());
+                }
+            }
+            return Collections.unmodifiableSet(values);
+        }
+    }
+}
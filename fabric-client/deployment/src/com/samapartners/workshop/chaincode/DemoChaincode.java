@@ -1,18 +1,23 @@
 package com.samapartners.workshop.chaincode;
 
-import org.hyperledger.fabric.shim.ChaincodeBase;
 import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.KeyValue;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
 
 import javax.json.Json;
+import javax.json.JsonArrayBuilder;
 import java.time.Instant;
 import java.util.Date;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Created by alacambra on 28.11.17.
  */
-public class DemoChaincode extends ChaincodeBase {
+public class DemoChaincode extends InstrumentedChaincode {
 
+    private static final String LAST_KEY = "\uffff";
 
     @Override
     public Response init(ChaincodeStub chaincodeStub) {
@@ -21,10 +26,15 @@ public class DemoChaincode extends ChaincodeBase {
     }
 
     @Override
-    public Response invoke(ChaincodeStub stub) {
+    protected Response doInvoke(ChaincodeStub stub) {
+
+        List<byte[]> rawArgs = stub.getArgs();
+        String function = new String(rawArgs.get(0), UTF_8);
+        if ("putBytes".equals(function)) {
+            return putBytes(stub, rawArgs);
+        }
 
         List<String> args = stub.getParameters();
-        String function = stub.getFunction();
 
         System.out.println(String.format("Received invocation . Function=%s, args=%s", function, args));
         byte[] response;
@@ -38,6 +48,10 @@ public class DemoChaincode extends ChaincodeBase {
                 System.out.println("Executing get: " + args.get(0));
                 response = stub.getState(args.get(0));
                 break;
+            case "list":
+                System.out.println("Executing list from: " + args.get(0));
+                response = list(stub, args.get(0), Integer.parseInt(args.get(1)));
+                break;
             default:
                 System.out.println("no valid function executed: " + function);
                 response = Json.createObjectBuilder().add("value","nothingtodo").build().toString().getBytes();
@@ -47,8 +61,47 @@ public class DemoChaincode extends ChaincodeBase {
         return newSuccessResponse("all ok", response);
     }
 
+    /**
+     * Stores the raw bytes of the second argument under the first one, without decoding any argument to a string but the key.
+     */
+    private Response putBytes(ChaincodeStub stub, List<byte[]> rawArgs) {
+        String key = new String(rawArgs.get(1), UTF_8);
+        System.out.println("Executing putBytes: " + key + ", " + rawArgs.get(2).length + " bytes");
+        stub.putState(key, rawArgs.get(2));
+        return newSuccessResponse("all ok", Json.createObjectBuilder().add("value", "done!").build().toString().getBytes());
+    }
+
+    /**
+     * Returns up to {@code pageSize} keys starting at {@code bookmark}, together with the bookmark of the next page.
+     */
+    private byte[] list(ChaincodeStub stub, String bookmark, int pageSize) {
+        JsonArrayBuilder records = Json.createArrayBuilder();
+        String nextBookmark = "";
+        int count = 0;
+
+        try (QueryResultsIterator<KeyValue> results = stub.getStateByRange(bookmark, LAST_KEY)) {
+            for (KeyValue keyValue : results) {
+                if (count == pageSize) {
+                    nextBookmark = keyValue.getKey();
+                    break;
+                }
+                records.add(Json.createObjectBuilder()
+                        .add("key", keyValue.getKey())
+                        .add("value", keyValue.getStringValue()));
+                count++;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        return Json.createObjectBuilder()
+                .add("records", records)
+                .add("bookmark", nextBookmark)
+                .build().toString().getBytes();
+    }
+
     public static void main(String[] args) {
         new DemoChaincode().start(args);
     }
 
-}
\ No newline at end of file
+}
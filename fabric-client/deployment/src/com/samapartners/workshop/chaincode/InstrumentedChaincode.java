@@ -0,0 +1,171 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeBase;
+import org.hyperledger.fabric.shim.ChaincodeStub;
+import org.hyperledger.fabric.shim.ledger.QueryResultsIterator;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Base class for chaincodes whose invocations should be measured.
+ *
+ * Subclasses implement {@link #doInvoke(ChaincodeStub)} instead of {@code invoke}. The stub they receive counts
+ * the ledger reads and writes of the call, each key returned by a range or query scan being a read and each delete a
+ * write, and the latency and payload sizes are recorded in {@link ChaincodeMetrics}, also for calls that throw.
+ * Large payloads of calls whose function ends with {@value PayloadCompression#ACCEPT_GZIP_SUFFIX} are compressed by
+ * {@link PayloadCompression}, and the recorded response size is the one sent. Calls whose function ends with
+ * {@value ChaincodeTracing#TRACE_SUFFIX} are recorded in {@link ChaincodeTracing}, and the
+ * {@value ChaincodeTracing#TRACES_FUNCTION} query hands their spans out without reaching the subclass. The suffixes
+ * come in any order, and the subclass and the metrics see the function without them.
+ */
+public abstract class InstrumentedChaincode extends ChaincodeBase {
+
+    private final ChaincodeMetrics metrics = ChaincodeMetrics.fromEnvironment();
+    private final PayloadCompression compression = PayloadCompression.fromEnvironment();
+    private final ChaincodeTracing tracing = ChaincodeTracing.fromEnvironment();
+
+    @Override
+    public final Response invoke(ChaincodeStub stub) {
+        long start = System.nanoTime();
+        long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        AtomicLong gets = new AtomicLong();
+        AtomicLong puts = new AtomicLong();
+        List<byte[]> args = stub.getArgs();
+        String function = args.isEmpty() ? "" : new String(args.get(0), UTF_8);
+        String sentFunction = function;
+        boolean acceptsGzip = false;
+        boolean traced = false;
+        while (true) {
+            if (function.endsWith(PayloadCompression.ACCEPT_GZIP_SUFFIX)) {
+                acceptsGzip = true;
+                function = function.substring(0, function.length() - PayloadCompression.ACCEPT_GZIP_SUFFIX.length());
+            } else if (function.endsWith(ChaincodeTracing.TRACE_SUFFIX)) {
+                traced = true;
+                function = function.substring(0, function.length() - ChaincodeTracing.TRACE_SUFFIX.length());
+            } else {
+                break;
+            }
+        }
+        if (ChaincodeTracing.TRACES_FUNCTION.equals(function) && args.size() > 1) {
+            List<String> keys = new ArrayList<>();
+            for (byte[] key : args.subList(1, args.size())) {
+                keys.add(new String(key, UTF_8));
+            }
+            return newSuccessResponse(tracing.collect(keys));
+        }
+        String traceId = traced ? tracing.traceId(stub) : null;
+
+        Response response = null;
+        try {
+            response = compression.apply(acceptsGzip, doInvoke(countingStub(stub, function.equals(sentFunction) ? null : function, gets, puts)));
+            return response;
+        } finally {
+            long requestBytes = 0;
+            for (byte[] arg : args) {
+                requestBytes += arg.length;
+            }
+            long responseBytes = response == null || response.getPayload() == null ? 0 : response.getPayload().length;
+            long duration = System.nanoTime() - start;
+            metrics.record(function, stub.getTxId(), duration, gets.get(), puts.get(), requestBytes, responseBytes);
+            if (traceId != null) {
+                tracing.record(traceId, function, stub.getTxId(), startEpochMicros, duration, gets.get(), puts.get());
+            }
+        }
+    }
+
+    protected abstract Response doInvoke(ChaincodeStub stub);
+
+    protected ChaincodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param function the function the subclass sees instead of the one sent, {@code null} to keep it
+     */
+    private static ChaincodeStub countingStub(ChaincodeStub stub, String function, AtomicLong gets, AtomicLong puts) {
+        return (ChaincodeStub) Proxy.newProxyInstance(
+                ChaincodeStub.class.getClassLoader(),
+                new Class<?>[]{ChaincodeStub.class},
+                (proxy, method, args) -> {
+                    if (function != null) {
+                        switch (method.getName()) {
+                            case "getFunction":
+                                return function;
+                            case "getArgs":
+                                List<byte[]> rawArgs = new ArrayList<>(stub.getArgs());
+                                rawArgs.set(0, function.getBytes(UTF_8));
+                                return rawArgs;
+                            case "getStringArgs":
+                                List<String> stringArgs = new ArrayList<>(stub.getStringArgs());
+                                stringArgs.set(0, function);
+                                return stringArgs;
+                            default:
+                        }
+                    }
+                    switch (method.getName()) {
+                        case "getState":
+                        case "getStringState":
+                            gets.incrementAndGet();
+                            break;
+                        case "putState":
+                        case "putStringState":
+                        case "delState":
+                            puts.incrementAndGet();
+                            break;
+                        default:
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(stub, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    return result instanceof QueryResultsIterator ? new CountingResults<>((QueryResultsIterator<?>) result, gets) : result;
+                });
+    }
+
+    /**
+     * Counts the results of a range or query scan as they are read.
+     */
+    private static final class CountingResults<T> implements QueryResultsIterator<T> {
+
+        private final QueryResultsIterator<T> results;
+        private final AtomicLong gets;
+
+        CountingResults(QueryResultsIterator<T> results, AtomicLong gets) {
+            this.results = results;
+            this.gets = gets;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            Iterator<T> iterator = results.iterator();
+            return new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    T next = iterator.next();
+                    gets.incrementAndGet();
+                    return next;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws Exception {
+            results.close();
+        }
+    }
+}
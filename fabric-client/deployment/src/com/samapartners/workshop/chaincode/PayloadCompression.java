@@ -0,0 +1,75 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.Chaincode.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compression of large success payloads.
+ *
+ * A compressed response carries {@link #GZIP} as its message, which is how the client recognizes it. Only calls whose
+ * function ends with {@value #ACCEPT_GZIP_SUFFIX} get compressed responses; the client adds it to queries only, so
+ * transaction responses, which end up in blocks read by any client, stay as they are. The suffix is part of the
+ * arguments because shims before 1.1 cannot read the transient map. Payloads below the threshold, or that do not get
+ * smaller, are returned unchanged.
+ */
+public class PayloadCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String ACCEPT_GZIP_SUFFIX = "#" + GZIP;
+
+    static final String THRESHOLD_ENV = "CHAINCODE_COMPRESSION_THRESHOLD";
+
+    private final int threshold;
+
+    /**
+     * @param threshold minimum payload size in bytes to compress, negative to disable compression
+     */
+    public PayloadCompression(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public static PayloadCompression fromEnvironment() {
+        String value = System.getenv(THRESHOLD_ENV);
+        int threshold = 4096;
+        if (value != null && !value.isEmpty()) {
+            try {
+                threshold = Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println(String.format("Ignoring invalid %s=%s", THRESHOLD_ENV, value));
+            }
+        }
+        return new PayloadCompression(threshold);
+    }
+
+    /**
+     * @param accepted whether the caller asked for compression with {@value #ACCEPT_GZIP_SUFFIX}
+     */
+    public Response apply(boolean accepted, Response response) {
+        if (threshold < 0 || response == null || response.getStatus() != Response.Status.SUCCESS) {
+            return response;
+        }
+        byte[] payload = response.getPayload();
+        if (payload == null || payload.length < threshold || !accepted) {
+            return response;
+        }
+
+        byte[] compressed = gzip(payload);
+        if (compressed.length >= payload.length) {
+            return response;
+        }
+        return new Response(Response.Status.SUCCESS, GZIP, compressed);
+    }
+
+    static byte[] gzip(byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(payload);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,41 @@
+package com.samapartners.workshop.chaincode;
+
+import org.hyperledger.fabric.shim.ChaincodeStub;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Reads the transient map of a proposal. Shims before 1.1 cannot read it, so on them it is always empty.
+ */
+final class Transients {
+
+    private Transients() {
+    }
+
+    /**
+     * @return the transient map of the proposal, empty if it has none or the shim cannot read it
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, byte[]> of(ChaincodeStub stub) {
+        Method getTransient = getter(stub);
+        if (getTransient == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            Map<String, byte[]> transientMap = (Map<String, byte[]>) getTransient.invoke(stub);
+            return transientMap == null ? Collections.<String, byte[]>emptyMap() : transientMap;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static Method getter(ChaincodeStub stub) {
+        try {
+            return stub.getClass().getMethod("getTransient");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
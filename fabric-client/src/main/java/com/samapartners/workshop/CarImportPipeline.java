@@ -0,0 +1,307 @@
+package com.samapartners.workshop;
+
+import com.samapartners.workshop.client.FabricClient;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streams car records from a file of CSV or JSON lines into the car management chaincode.
+ *
+ * Lines are read one batch at a time; each batch is validated, encoded and sent by a worker as one {@code createCar}
+ * transaction per channel its cars belong to. At most {@code maxInFlight} batches are in memory or waiting for their
+ * commit, so memory stays constant however large the file is. The checkpoint file holds the last line up to which every
+ * batch has been committed; a new run over the same file continues after it. Invalid records are reported and skipped, a failed
+ * transaction, or one not committed within {@code commitTimeout}, stops the import.
+ */
+public class CarImportPipeline {
+
+    private final FabricClient fabricClient;
+    private final ChaincodeID chaincodeID;
+    private final Path checkpointFile;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final Duration commitTimeout;
+    private final Executor executor;
+
+    public CarImportPipeline(FabricClient fabricClient, ChaincodeID chaincodeID, Path checkpointFile, int batchSize, int maxInFlight,
+                             Duration commitTimeout, Executor executor) {
+        this.fabricClient = fabricClient;
+        this.chaincodeID = chaincodeID;
+        this.checkpointFile = checkpointFile;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.commitTimeout = commitTimeout;
+        this.executor = executor;
+    }
+
+    public Report importFile(Path input) throws IOException, InterruptedException {
+        long resumeAfter = readCheckpoint();
+        Run run = new Run(resumeAfter);
+        if (resumeAfter > 0) {
+            System.out.println("Resuming import of " + input + " after line " + resumeAfter);
+        }
+
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> System.out.println(run.report()), 10, 10, TimeUnit.SECONDS);
+
+        try (BufferedReader reader = Files.newBufferedReader(input, UTF_8)) {
+            long lineNumber = 0;
+            List<String> batch = new ArrayList<>(batchSize);
+            String line;
+            while (run.failure.get() == null && (line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= resumeAfter || line.trim().isEmpty() || lineNumber == 1 && isCsvHeader(line)) {
+                    continue;
+                }
+                batch.add(line);
+                if (batch.size() == batchSize) {
+                    run.submit(batch, lineNumber);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (run.failure.get() == null && !batch.isEmpty()) {
+                run.submit(batch, lineNumber);
+            }
+            run.window.acquire(maxInFlight);
+        } finally {
+            progress.shutdownNow();
+        }
+
+        Report report = run.report();
+        System.out.println(report);
+        return report;
+    }
+
+    private static boolean isCsvHeader(String line) {
+        return line.trim().toLowerCase().startsWith("id,");
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        String content = new String(Files.readAllBytes(checkpointFile), UTF_8).trim();
+        return content.isEmpty() ? 0 : Long.parseLong(content);
+    }
+
+    private void writeCheckpoint(long line) {
+        try {
+            Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+            Files.write(temp, Long.toString(line).getBytes(UTF_8));
+            Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write checkpoint " + checkpointFile, e);
+        }
+    }
+
+    /**
+     * State of one import run.
+     */
+    private final class Run {
+
+        private final Semaphore window = new Semaphore(maxInFlight);
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicLong imported = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final long start = System.nanoTime();
+
+        private final ReentrantLock checkpointLock = new ReentrantLock();
+        private final TreeMap<Long, Long> pendingBatches = new TreeMap<>();
+        private final TreeMap<Long, Long> completedBatches = new TreeMap<>();
+        private long nextBatch;
+        private long checkpoint;
+
+        Run(long checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        void submit(List<String> lines, long lastLine) throws InterruptedException {
+            window.acquire();
+            long batch = register(lastLine);
+            executor.execute(() -> {
+                try {
+                    send(batch, lines);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            });
+        }
+
+        /**
+         * Sends the valid records of a batch as one transaction per channel they belong to.
+         */
+        private void send(long batch, List<String> lines) {
+            Map<String, List<String>> carsByChannel = new LinkedHashMap<>();
+            int count = 0;
+            for (String line : lines) {
+                try {
+                    CarRecord car = CarRecord.parse(line);
+                    carsByChannel.computeIfAbsent(fabricClient.channelFor(car.getId()), channel -> new ArrayList<>())
+                            .add(car.toJson().toString());
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    rejected.incrementAndGet();
+                    System.out.println("Skipping record: " + e.getMessage());
+                }
+            }
+
+            if (carsByChannel.isEmpty()) {
+                complete(batch, 0);
+                return;
+            }
+
+            List<CompletableFuture<BlockInfo>> commits = new ArrayList<>();
+            for (Map.Entry<String, List<String>> cars : carsByChannel.entrySet()) {
+                CompletableFuture<BlockInfo> commit = fabricClient.invokeOnChannel(cars.getKey(), chaincodeID, "createCar", cars.getValue().toArray(new String[0]));
+                if (commit == null) {
+                    commit = new CompletableFuture<>();
+                    commit.completeExceptionally(new IllegalStateException(
+                            "Endorsement of a createCar batch with " + cars.getValue().size() + " cars on " + cars.getKey() + " was rejected"));
+                }
+                commits.add(commit.orTimeout(commitTimeout.toNanos(), TimeUnit.NANOSECONDS));
+            }
+
+            int imported = count;
+            CompletableFuture.allOf(commits.toArray(new CompletableFuture<?>[0])).whenComplete((done, error) -> {
+                if (error != null) {
+                    fail(error);
+                } else {
+                    complete(batch, imported);
+                }
+            });
+        }
+
+        private long register(long lastLine) {
+            checkpointLock.lock();
+            try {
+                long batch = nextBatch++;
+                pendingBatches.put(batch, lastLine);
+                return batch;
+            } finally {
+                checkpointLock.unlock();
+            }
+        }
+
+        /**
+         * Releases the batch's slot in the window in any case; a checkpoint that cannot be written fails the run.
+         */
+        private void complete(long batch, int cars) {
+            try {
+                imported.addAndGet(cars);
+
+                checkpointLock.lock();
+                try {
+                    completedBatches.put(batch, pendingBatches.remove(batch));
+                    long advanced = checkpoint;
+                    while (!completedBatches.isEmpty()
+                            && (pendingBatches.isEmpty() || completedBatches.firstKey() < pendingBatches.firstKey())) {
+                        advanced = completedBatches.pollFirstEntry().getValue();
+                    }
+                    if (advanced != checkpoint) {
+                        checkpoint = advanced;
+                        writeCheckpoint(checkpoint);
+                    }
+                } finally {
+                    checkpointLock.unlock();
+                }
+            } catch (RuntimeException e) {
+                recordFailure(e);
+            } finally {
+                window.release();
+            }
+        }
+
+        private void fail(Throwable error) {
+            recordFailure(error);
+            window.release();
+        }
+
+        private void recordFailure(Throwable error) {
+            if (failure.compareAndSet(null, error)) {
+                System.out.println("Import failed, rerun to resume after the checkpoint: " + error.getMessage());
+            }
+        }
+
+        Report report() {
+            long checkpointLine;
+            checkpointLock.lock();
+            try {
+                checkpointLine = checkpoint;
+            } finally {
+                checkpointLock.unlock();
+            }
+            return new Report(imported.get(), rejected.get(), checkpointLine, System.nanoTime() - start, failure.get());
+        }
+    }
+
+    public static final class Report {
+
+        private final long imported;
+        private final long rejected;
+        private final long checkpoint;
+        private final long elapsedNanos;
+        private final Throwable failure;
+
+        Report(long imported, long rejected, long checkpoint, long elapsedNanos, Throwable failure) {
+            this.imported = imported;
+            this.rejected = rejected;
+            this.checkpoint = checkpoint;
+            this.elapsedNanos = elapsedNanos;
+            this.failure = failure;
+        }
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getCheckpoint() {
+            return checkpoint;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : imported / (elapsedNanos / 1e9);
+        }
+
+        public boolean isComplete() {
+            return failure == null;
+        }
+
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Imported %d cars (%d rejected) in %ds, %.0f records/s, checkpoint at line %d%s",
+                    imported, rejected, TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), getRecordsPerSecond(), checkpoint,
+                    failure == null ? "" : ", failed: " + failure.getMessage());
+        }
+    }
+}
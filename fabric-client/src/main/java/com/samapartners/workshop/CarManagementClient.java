@@ -1,28 +1,229 @@
 package com.samapartners.workshop;
 
 import com.samapartners.workshop.client.FabricClient;
+import com.samapartners.workshop.client.RangeScan;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by alacambra on 29.11.17.
  */
 public class CarManagementClient {
 
+    private static final Duration IMPORT_COMMIT_TIMEOUT = Duration.ofMinutes(2);
+
     FabricClient fabricClient;
+    ChaincodeID chaincodeID;
+
+    public CarManagementClient(FabricClient fabricClient, ChaincodeID chaincodeID) {
+        this.fabricClient = fabricClient;
+        this.chaincodeID = chaincodeID;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: CarManagementClient <cars file> <checkpoint file> [batch size] [max in flight]");
+            return;
+        }
+
+        FabricClient fabricClient = new FabricClient();
+        fabricClient.bootstrap();
+        ChaincodeID chaincodeID = ChaincodeID.newBuilder()
+                .setName("carmanagement")
+                .setVersion("1")
+                .build();
+
+        CarManagementClient client = new CarManagementClient(fabricClient, chaincodeID);
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int maxInFlight = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        client.importCars(Paths.get(args[0]), Paths.get(args[1]), batchSize, maxInFlight);
+    }
+
+    /**
+     * Imports a file of CSV or JSON car records, resuming after the line stored in the checkpoint file.
+     *
+     * @see CarImportPipeline
+     */
+    public CarImportPipeline.Report importCars(Path input, Path checkpointFile, int batchSize, int maxInFlight) throws IOException, InterruptedException {
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            return new CarImportPipeline(fabricClient, chaincodeID, checkpointFile, batchSize, maxInFlight, IMPORT_COMMIT_TIMEOUT, workers)
+                    .importFile(input);
+        }
+    }
+
+    /**
+     * All cars of all channels, merged into a single {@code cars} array. Empty if a channel did not answer.
+     */
+    public Optional<JsonObject> queryAllCars() {
+        JsonArrayBuilder cars = Json.createArrayBuilder();
+        for (Optional<JsonArray> shardCars : fabricClient.queryShards(chaincodeID, "queryAllCars", new String[0], json -> json.getJsonArray("cars")).values()) {
+            if (!shardCars.isPresent()) {
+                return Optional.empty();
+            }
+            shardCars.get().forEach(cars::add);
+        }
+        return Optional.of(Json.createObjectBuilder().add("cars", cars).build());
+    }
 
+    /**
+     * All cars of all channels in the order of their ids. Each channel is scanned in {@code parallelism} concurrent
+     * ranges, spread over its peers, and the cars are returned while the scan goes on. The scan's threads stop once the
+     * last car has been read or a query failed; closing the stream early stops the queries that have not started yet.
+     *
+     * @param pageSize the maximum number of cars per query
+     * @see RangeScan
+     */
+    public Stream<JsonObject> scanAllCars(int parallelism, int pageSize) {
+        ExecutorService scanners = Executors.newVirtualThreadPerTaskExecutor();
+        RangeScan scan = new RangeScan(fabricClient, chaincodeID, "queryCarRange", parallelism, pageSize, scanners);
+        PriorityQueue<ChannelCars> heads = new PriorityQueue<>(Comparator.comparing(head -> head.car.getString("id")));
+        try {
+            for (String channelName : fabricClient.getChannelNames()) {
+                ChannelCars head = new ChannelCars(scan.scan(channelName));
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        } catch (RuntimeException e) {
+            scanners.shutdownNow();
+            throw e;
+        }
 
-    private void queryAllCars() {
+        Iterator<JsonObject> merged = new Iterator<JsonObject>() {
+            @Override
+            public boolean hasNext() {
+                if (heads.isEmpty()) {
+                    scanners.shutdown();
+                    return false;
+                }
+                return true;
+            }
 
+            @Override
+            public JsonObject next() {
+                ChannelCars head = heads.remove();
+                JsonObject car = head.car;
+                try {
+                    if (head.advance()) {
+                        heads.add(head);
+                    }
+                } catch (RuntimeException e) {
+                    scanners.shutdownNow();
+                    throw e;
+                }
+                return car;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(scanners::shutdown);
     }
 
-    private void createCar() {
+    public CompletableFuture<BlockInfo> createCar(CarRecord car) {
+        return fabricClient.invokeSharded(car.getId(), chaincodeID, "createCar", new String[]{car.toJson().toString()});
+    }
+
+    public Optional<JsonObject> queryCarProperties(String id) {
+        return fabricClient.querySharded(id, chaincodeID, "queryCarProperties", new String[]{id}, json -> json);
+    }
+
+    /**
+     * Only the given fields of a car, which the chaincode reads without loading the rest of the record.
+     */
+    public Optional<JsonObject> queryCarFields(String id, String... fields) {
+        String[] args = new String[fields.length + 1];
+        args[0] = id;
+        System.arraycopy(fields, 0, args, 1, fields.length);
+        return fabricClient.querySharded(id, chaincodeID, "queryCarFields", args, json -> json);
+    }
+
+    public CompletableFuture<BlockInfo> transferCar(String id, String owner) {
+        return fabricClient.invokeSharded(id, chaincodeID, "transferCar", new String[]{id, owner});
+    }
+
+    /**
+     * Sets the fields of {@code patch} on a car and removes those set to {@code null}. Only fields whose value changes
+     * are written, so patches of different fields of the same car do not conflict.
+     */
+    public CompletableFuture<BlockInfo> patchCar(String id, JsonObject patch) {
+        return fabricClient.invokeSharded(id, chaincodeID, "patchCar", new String[]{id, patch.toString()});
+    }
 
+    /**
+     * Number of cars of an owner, or of all cars if {@code owner} is {@code null}, summed over all channels.
+     */
+    public Optional<Long> queryCarCount(String owner) {
+        String[] args = owner == null ? new String[0] : new String[]{owner};
+        long count = 0;
+        for (Optional<Long> shardCount : fabricClient.queryShards(chaincodeID, "queryCarCount", args, json -> json.getJsonNumber("count").longValue()).values()) {
+            if (!shardCount.isPresent()) {
+                return Optional.empty();
+            }
+            count += shardCount.get();
+        }
+        return Optional.of(count);
     }
 
-    private void queryCarProperties() {
+    /**
+     * Compacts the counts on every channel.
+     *
+     * @return the commit blocks by channel
+     */
+    public Map<String, CompletableFuture<BlockInfo>> compactCarCounts() {
+        Map<String, CompletableFuture<BlockInfo>> commits = new LinkedHashMap<>();
+        for (String channelName : fabricClient.getChannelNames()) {
+            commits.put(channelName, fabricClient.invokeOnChannel(channelName, chaincodeID, "compactCarCounts", new String[0]));
+        }
+        return commits;
+    }
 
+    /**
+     * Replaces a set of reference values, such as {@code colours}, on every channel. Cars with a value outside a
+     * non empty set are then rejected.
+     *
+     * @return the commit blocks by channel
+     */
+    public Map<String, CompletableFuture<BlockInfo>> putReferenceData(String name, JsonArray values) {
+        Map<String, CompletableFuture<BlockInfo>> commits = new LinkedHashMap<>();
+        for (String channelName : fabricClient.getChannelNames()) {
+            commits.put(channelName, fabricClient.invokeOnChannel(channelName, chaincodeID, "putReferenceData", new String[]{name, values.toString()}));
+        }
+        return commits;
     }
 
-    private void transferCar() {
+    private static final class ChannelCars {
+
+        private final Iterator<JsonObject> cars;
+        private JsonObject car;
+
+        ChannelCars(Iterator<JsonObject> cars) {
+            this.cars = cars;
+        }
 
+        boolean advance() {
+            car = cars.hasNext() ? cars.next() : null;
+            return car != null;
+        }
     }
 }
@@ -0,0 +1,107 @@
+package com.samapartners.workshop;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.StringReader;
+
+/**
+ * A car as stored by the car management chaincode.
+ */
+public final class CarRecord {
+
+    private final String id;
+    private final String make;
+    private final String model;
+    private final String colour;
+    private final String owner;
+
+    public CarRecord(String id, String make, String model, String colour, String owner) {
+        this.id = id;
+        this.make = make;
+        this.model = model;
+        this.colour = colour;
+        this.owner = owner;
+    }
+
+    /**
+     * Parses either a JSON object or a CSV line with the columns id, make, model, colour and owner.
+     *
+     * @throws IllegalArgumentException if the line is malformed or a field is missing
+     */
+    public static CarRecord parse(String line) {
+        String trimmed = line.trim();
+        CarRecord car = trimmed.startsWith("{") ? fromJson(trimmed) : fromCsv(trimmed);
+        car.validate();
+        return car;
+    }
+
+    static CarRecord fromJson(String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            JsonObject object = reader.readObject();
+            return new CarRecord(
+                    object.getString("id", ""),
+                    object.getString("make", ""),
+                    object.getString("model", ""),
+                    object.getString("colour", ""),
+                    object.getString("owner", ""));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid JSON car record: " + json, e);
+        }
+    }
+
+    static CarRecord fromCsv(String csv) {
+        String[] fields = csv.split(",", -1);
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Expected 5 CSV fields but got " + fields.length + ": " + csv);
+        }
+        return new CarRecord(fields[0].trim(), fields[1].trim(), fields[2].trim(), fields[3].trim(), fields[4].trim());
+    }
+
+    private void validate() {
+        if (id.isEmpty() || make.isEmpty() || model.isEmpty() || colour.isEmpty() || owner.isEmpty()) {
+            throw new IllegalArgumentException("Car record with empty fields: " + this);
+        }
+    }
+
+    public JsonObject toJson() {
+        return Json.createObjectBuilder()
+                .add("id", id)
+                .add("make", make)
+                .add("model", model)
+                .add("colour", colour)
+                .add("owner", owner)
+                .build();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMake() {
+        return make;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getColour() {
+        return colour;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public String toString() {
+        return "CarRecord{" +
+                "id='" + id + '\'' +
+                ", make='" + make + '\'' +
+                ", model='" + model + '\'' +
+                ", colour='" + colour + '\'' +
+                ", owner='" + owner + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,286 @@
+package com.samapartners.workshop.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the load the client puts on the network.
+ *
+ * Every call first takes a token from the rate limit of its chaincode function, if one is configured, and then a slot
+ * of its function's concurrency limit. Each function has its own limit and latency baseline, so slow transactions,
+ * which wait for their commit, do not hold back fast queries. A limit adapts to the observed latency: it grows by one
+ * per limit's worth of calls as long as latency stays within {@code latencyTolerance} times the lowest recent latency,
+ * and shrinks by {@code backoffRatio} when a call is slower or fails, at most once per round of calls. Callers wait at
+ * most {@code maxQueueMillis} for a token and a slot; with zero they are rejected right away with a
+ * {@link RejectedExecutionException}. A caller rejected by the concurrency limit gives its token back.
+ */
+public class AdmissionController {
+
+    private static final int MIN_LATENCY_WINDOW = 1_000;
+
+    private final Map<String, TokenBucket> rates = new ConcurrentHashMap<>();
+    private final Map<String, Limit> limits = new ConcurrentHashMap<>();
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final long maxQueueNanos;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionController(int initialLimit, int minLimit, int maxLimit, double latencyTolerance, double backoffRatio, long maxQueueMillis) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueMillis);
+    }
+
+    public static AdmissionController defaults() {
+        return new AdmissionController(20, 4, 500, 2.0, 0.9, 1_000);
+    }
+
+    /**
+     * Limits calls of a chaincode function to {@code permitsPerSecond}, allowing bursts of up to {@code burst} calls.
+     */
+    public AdmissionController setRate(String function, double permitsPerSecond, int burst) {
+        rates.put(function, new TokenBucket(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Waits for a token of the function's rate limit and a slot of its concurrency limit.
+     *
+     * @throws RejectedExecutionException if they are not available before the queueing deadline
+     */
+    public Permit acquire(String function) {
+        long deadline = System.nanoTime() + maxQueueNanos;
+
+        TokenBucket bucket = rates.get(function);
+        if (bucket != null && !bucket.take(deadline)) {
+            throw reject(function, "rate limit");
+        }
+
+        Limit limit = limits.computeIfAbsent(function, name -> new Limit());
+        try {
+            limit.acquire(function, deadline);
+        } catch (RuntimeException e) {
+            if (bucket != null) {
+                bucket.giveBack();
+            }
+            throw e;
+        }
+
+        admitted.incrementAndGet();
+        return new Permit(limit, System.nanoTime());
+    }
+
+    private RejectedExecutionException reject(String function, String reason) {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException(String.format("%s rejected by the %s", function, reason));
+    }
+
+    /**
+     * The concurrency limit of a function, 0 if it was not called yet.
+     */
+    public int getLimit(String function) {
+        Limit limit = limits.get(function);
+        return limit == null ? 0 : limit.get();
+    }
+
+    /**
+     * Calls in flight over all functions.
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (Limit limit : limits.values()) {
+            inFlight += limit.inFlight();
+        }
+        return inFlight;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder functions = new StringBuilder();
+        limits.forEach((function, limit) -> functions.append(String.format(", %s=%d/%d", function, limit.inFlight(), limit.get())));
+        return String.format("Admission: inFlight=%d, admitted=%d, rejected=%d%s",
+                getInFlight(), admitted.get(), rejected.get(), functions);
+    }
+
+    /**
+     * A granted slot. It must be released exactly once, when the call completed.
+     */
+    public final class Permit {
+
+        private final Limit limit;
+        private final long start;
+        private boolean released;
+
+        private Permit(Limit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+
+        /**
+         * @param success {@code false} if the call failed or timed out, which shrinks the limit
+         */
+        public synchronized void release(boolean success) {
+            if (!released) {
+                released = true;
+                limit.release(start, success);
+            }
+        }
+    }
+
+    /**
+     * The adaptive concurrency limit of one function.
+     */
+    private final class Limit {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition slotFreed = lock.newCondition();
+
+        private double limit = initialLimit;
+        private int inFlight;
+        private long minLatencyNanos = Long.MAX_VALUE;
+        private long nextMinLatency = Long.MAX_VALUE;
+        private int latencySamples;
+        private long lastDecrease = System.nanoTime();
+
+        void acquire(String function, long deadline) {
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw reject(function, "concurrency limit of " + (int) limit);
+                    }
+                    slotFreed.awaitNanos(remaining);
+                }
+                inFlight++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for admission of " + function, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long start, boolean success) {
+            long now = System.nanoTime();
+            long latencyNanos = now - start;
+            lock.lock();
+            try {
+                inFlight--;
+
+                nextMinLatency = Math.min(nextMinLatency, latencyNanos);
+                if (++latencySamples >= MIN_LATENCY_WINDOW) {
+                    // start over regularly, so the baseline follows a network that became slower for good
+                    minLatencyNanos = nextMinLatency;
+                    nextMinLatency = Long.MAX_VALUE;
+                    latencySamples = 0;
+                }
+                minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+
+                int previousLimit = (int) limit;
+                if (!success || latencyNanos > minLatencyNanos * latencyTolerance) {
+                    // calls started before the last decrease already saw the congestion it reacted to
+                    if (start - lastDecrease > 0) {
+                        limit = Math.max(minLimit, limit * backoffRatio);
+                        lastDecrease = now;
+                    }
+                } else if (inFlight + 1 >= previousLimit) {
+                    // only grow while the limit is actually used
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+
+                if ((int) limit > previousLimit) {
+                    slotFreed.signalAll();
+                } else {
+                    slotFreed.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int get() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final int burst;
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+
+        TokenBucket(double permitsPerSecond, int burst) {
+            this.tokensPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+        }
+
+        boolean take(long deadline) {
+            while (true) {
+                long wait = tryTake();
+                if (wait == 0) {
+                    return true;
+                }
+                if (System.nanoTime() + wait > deadline) {
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise the time in nanoseconds until one is available
+         */
+        private synchronized long tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+        }
+
+        /**
+         * Returns a token taken by a call that was not admitted after all.
+         */
+        synchronized void giveBack() {
+            tokens = Math.min(burst, tokens + 1);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.samapartners.workshop.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.BlockListener;
+import org.hyperledger.fabric.sdk.Blocks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Committed blocks of one channel, kept on local disk so block lookups need no peer.
+ *
+ * Blocks are appended to segment files as length prefixed protobuf records. Two fixed size, memory mapped indexes
+ * point into the segments: a table of block numbers with one slot per number modulo its size, and a hash table from
+ * transaction id to block number. Once the segments exceed {@code retentionBytes} the oldest one is deleted; index
+ * entries pointing into it then miss. A block overwrites the slot of the block {@value #NUMBER_SLOTS} numbers apart,
+ * and the transaction table overwrites old entries when a bucket is full, so both stay bounded however long the chain
+ * gets; a lookup always checks that the block it finds is the one asked for.
+ *
+ * Registered as a block listener it stores every block the event hubs deliver.
+ */
+public class BlockCache implements BlockListener, AutoCloseable {
+
+    private static final int ENTRY_BYTES = 16;
+    private static final int NUMBER_ENTRY_BYTES = 24;
+    private static final int NUMBER_SLOTS = 1 << 18;
+    private static final int TRANSACTION_SLOTS = 1 << 18;
+    private static final int MAX_PROBES = 16;
+    private static final int SEGMENTS = 4;
+
+    private final Path directory;
+    private final long retentionBytes;
+    private final long segmentBytes;
+    private final FileChannel numberIndexFile;
+    private final FileChannel transactionIndexFile;
+    private final MappedByteBuffer numberIndex;
+    private final MappedByteBuffer transactionIndex;
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private long currentSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+
+    private BlockCache(Path directory, long retentionBytes) throws IOException {
+        this.directory = directory;
+        this.retentionBytes = retentionBytes;
+        this.segmentBytes = Math.max(1, retentionBytes / SEGMENTS);
+        // the index of earlier versions had a slot for every block number
+        Files.deleteIfExists(directory.resolve("blocks.index"));
+        this.numberIndexFile = FileChannel.open(directory.resolve("numbers.index"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.transactionIndexFile = FileChannel.open(directory.resolve("transactions.index"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.numberIndex = map(numberIndexFile, NUMBER_SLOTS, NUMBER_ENTRY_BYTES);
+        this.transactionIndex = map(transactionIndexFile, TRANSACTION_SLOTS, ENTRY_BYTES);
+    }
+
+    private static MappedByteBuffer map(FileChannel file, int slots, int entryBytes) throws IOException {
+        return file.map(FileChannel.MapMode.READ_WRITE, 0, Math.multiplyExact((long) slots, entryBytes));
+    }
+
+    /**
+     * Opens the cache in {@code directory}, keeping the blocks stored there before.
+     *
+     * @param retentionBytes size of the stored blocks above which the oldest are deleted
+     */
+    public static BlockCache open(Path directory, long retentionBytes) throws IOException {
+        Files.createDirectories(directory);
+        BlockCache cache = new BlockCache(directory, retentionBytes);
+        cache.openSegments();
+        return cache;
+    }
+
+    private void openSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*.blocks")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int segment = Integer.parseInt(name.substring("segment-".length(), name.length() - ".blocks".length()));
+                segments.put(segment, FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+        if (segments.isEmpty()) {
+            roll();
+        } else {
+            currentSize = recover(segments.lastEntry().getValue());
+        }
+    }
+
+    /**
+     * Cuts off a record the process did not finish writing before it stopped.
+     *
+     * @return the size of the complete records
+     */
+    private static long recover(FileChannel segment) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        long position = 0;
+        while (true) {
+            length.clear();
+            if (segment.read(length, position) < Integer.BYTES) {
+                break;
+            }
+            long next = position + Integer.BYTES + length.getInt(0);
+            if (next > segment.size()) {
+                break;
+            }
+            position = next;
+        }
+        segment.truncate(position);
+        return position;
+    }
+
+    @Override
+    public void received(BlockEvent blockEvent) {
+        try {
+            put(blockEvent.getBlock());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void put(BlockInfo blockInfo) throws IOException {
+        put(blockInfo.getBlock());
+    }
+
+    public synchronized void put(Common.Block block) throws IOException {
+        long number = block.getHeader().getNumber();
+        if (isStored(number)) {
+            return;
+        }
+
+        byte[] bytes = block.toByteArray();
+        if (currentSize > 0 && currentSize + Integer.BYTES + bytes.length > segmentBytes) {
+            roll();
+        }
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        long offset = currentSize;
+        FileChannel segment = segments.lastEntry().getValue();
+        while (record.hasRemaining()) {
+            segment.write(record, offset + record.position());
+        }
+        currentSize += Integer.BYTES + bytes.length;
+
+        int index = numberSlot(number);
+        numberIndex.putLong(index, number);
+        numberIndex.putLong(index + Long.BYTES, segments.lastKey() + 1L);
+        numberIndex.putLong(index + 2 * Long.BYTES, offset);
+
+        for (String transactionId : transactionIds(block)) {
+            indexTransaction(transactionId, number);
+        }
+        stored.incrementAndGet();
+    }
+
+    public synchronized Optional<BlockInfo> block(long number) {
+        Common.Block block = read(number);
+        if (block == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(Blocks.blockInfo(block));
+    }
+
+    public synchronized Optional<BlockInfo> blockByTransactionId(String transactionId) {
+        long hash = hash(transactionId);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = slot(hash, probe);
+            long slotHash = transactionIndex.getLong(slot);
+            if (slotHash == 0) {
+                break;
+            }
+            if (slotHash == hash) {
+                Common.Block block = read(transactionIndex.getLong(slot + Long.BYTES));
+                if (block != null && transactionIds(block).contains(transactionId)) {
+                    hits.incrementAndGet();
+                    return Optional.of(Blocks.blockInfo(block));
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    private Common.Block read(long number) {
+        long[] location = location(number);
+        if (location == null) {
+            return null;
+        }
+        FileChannel segment = segments.get((int) location[0]);
+        if (segment == null) {
+            return null;
+        }
+        try {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            if (segment.read(length, location[1]) < Integer.BYTES) {
+                return null;
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+            while (bytes.hasRemaining()) {
+                if (segment.read(bytes, location[1] + Integer.BYTES + bytes.position()) < 0) {
+                    return null;
+                }
+            }
+            Common.Block block = Common.Block.parseFrom(bytes.array());
+            return block.getHeader().getNumber() == number ? block : null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read block " + number + " from " + directory, e);
+        }
+    }
+
+    /**
+     * @return segment and offset of the block, or {@code null} if it was never stored or its slot was overwritten
+     */
+    private long[] location(long number) {
+        if (number < 0) {
+            return null;
+        }
+        int index = numberSlot(number);
+        long segment = numberIndex.getLong(index + Long.BYTES);
+        if (segment == 0 || numberIndex.getLong(index) != number) {
+            return null;
+        }
+        return new long[]{segment - 1, numberIndex.getLong(index + 2 * Long.BYTES)};
+    }
+
+    private static int numberSlot(long number) {
+        return Math.toIntExact(Math.floorMod(number, (long) NUMBER_SLOTS) * NUMBER_ENTRY_BYTES);
+    }
+
+    /**
+     * Whether the block is in a segment that still exists. The slot of a block whose segment was deleted is reused.
+     */
+    private boolean isStored(long number) {
+        long[] location = location(number);
+        return location != null && segments.containsKey((int) location[0]);
+    }
+
+    private void indexTransaction(String transactionId, long number) {
+        long hash = hash(transactionId);
+        int target = slot(hash, 0);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int slot = slot(hash, probe);
+            long slotHash = transactionIndex.getLong(slot);
+            if (slotHash == 0 || slotHash == hash) {
+                target = slot;
+                break;
+            }
+        }
+        transactionIndex.putLong(target, hash);
+        transactionIndex.putLong(target + Long.BYTES, number);
+    }
+
+    private static int slot(long hash, int probe) {
+        return (int) ((hash + probe) & (TRANSACTION_SLOTS - 1)) * ENTRY_BYTES;
+    }
+
+    /**
+     * FNV-1a of the transaction id, never 0 since 0 marks a free slot.
+     */
+    private static long hash(String transactionId) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : transactionId.getBytes(UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static List<String> transactionIds(Common.Block block) {
+        List<String> transactionIds = new ArrayList<>(block.getData().getDataCount());
+        for (ByteString envelope : block.getData().getDataList()) {
+            try {
+                Common.Payload payload = Common.Payload.parseFrom(Common.Envelope.parseFrom(envelope).getPayload());
+                String transactionId = Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader()).getTxId();
+                if (!transactionId.isEmpty()) {
+                    transactionIds.add(transactionId);
+                }
+            } catch (InvalidProtocolBufferException e) {
+                e.printStackTrace();
+            }
+        }
+        return transactionIds;
+    }
+
+    private void roll() throws IOException {
+        int next = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        segments.put(next, FileChannel.open(directory.resolve(String.format("segment-%08d.blocks", next)),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        currentSize = 0;
+
+        long total = 0;
+        for (FileChannel segment : segments.values()) {
+            total += segment.size();
+        }
+        while (segments.size() > 1 && total > retentionBytes) {
+            Map.Entry<Integer, FileChannel> oldest = segments.pollFirstEntry();
+            total -= oldest.getValue().size();
+            oldest.getValue().close();
+            Files.deleteIfExists(directory.resolve(String.format("segment-%08d.blocks", oldest.getKey())));
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Block cache %s: segments=%d, stored=%d, hits=%d, misses=%d",
+                directory, segments.size(), stored.get(), hits.get(), misses.get());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        numberIndex.force();
+        transactionIndex.force();
+        for (FileChannel segment : segments.values()) {
+            segment.close();
+        }
+        numberIndexFile.close();
+        transactionIndexFile.close();
+    }
+}
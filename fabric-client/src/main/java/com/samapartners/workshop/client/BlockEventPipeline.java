@@ -0,0 +1,233 @@
+package com.samapartners.workshop.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.hyperledger.fabric.protos.common.Common;
+import org.hyperledger.fabric.protos.peer.ChaincodeEventOuterClass;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.protos.peer.FabricTransaction;
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Delivers the commits of watched transactions and the events of subscribed chaincodes from the blocks of the event hubs.
+ *
+ * On the event hub thread only the channel header of each envelope is read, which is enough to find the transaction
+ * id and the chaincode. Envelopes nobody asked for are never decoded further. The transactions of subscribed
+ * chaincodes are decoded on the {@code decoders} executor in parallel, and their events are handed to the listeners on
+ * the {@code dispatcher} executor in the order of the transactions in the blocks.
+ */
+public class BlockEventPipeline implements BlockListener {
+
+    private static final byte VALID = 0;
+    private static final long DEFAULT_WATCH_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final Executor decoders;
+    private final Executor dispatcher;
+    private final Map<String, CompletableFuture<CommitNotification>> watchedTransactions = new ConcurrentHashMap<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+    private final AtomicLong envelopes = new AtomicLong();
+    private final AtomicLong decoded = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+
+    public BlockEventPipeline(Executor decoders, Executor dispatcher) {
+        this.decoders = decoders;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Completes once the transaction is committed, valid or not, or with a {@link java.util.concurrent.TimeoutException}
+     * after two minutes.
+     *
+     * @see #watch(String, long, TimeUnit)
+     */
+    public CompletableFuture<CommitNotification> watch(String transactionId) {
+        return watch(transactionId, DEFAULT_WATCH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Completes once the transaction is committed, valid or not, or with a {@link java.util.concurrent.TimeoutException}
+     * once {@code timeout} is over, which also drops the watch.
+     *
+     * Only blocks received after the call are looked at, so register the watch before the transaction is submitted;
+     * a watch on a transaction that is already committed only ends with the timeout.
+     */
+    public CompletableFuture<CommitNotification> watch(String transactionId, long timeout, TimeUnit unit) {
+        return watchedTransactions.computeIfAbsent(transactionId, id -> {
+            CompletableFuture<CommitNotification> watcher = new CompletableFuture<>();
+            watcher.orTimeout(timeout, unit).whenComplete((notification, error) -> {
+                if (error != null) {
+                    watchedTransactions.remove(id, watcher);
+                }
+            });
+            return watcher;
+        });
+    }
+
+    /**
+     * Listens to the events a chaincode sets in committed transactions.
+     *
+     * @param eventName name of the events to deliver, {@code null} for all events of the chaincode
+     */
+    public Subscription subscribe(String chaincodeId, String eventName, Consumer<ChaincodeEventNotification> listener) {
+        Subscription subscription = new Subscription(Objects.requireNonNull(chaincodeId), eventName, listener);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    @Override
+    public void received(BlockEvent blockEvent) {
+        Common.Block block = blockEvent.getBlock();
+        long blockNumber = block.getHeader().getNumber();
+        ByteString validationCodes = block.getMetadata().getMetadataCount() > Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE
+                ? block.getMetadata().getMetadata(Common.BlockMetadataIndex.TRANSACTIONS_FILTER_VALUE)
+                : ByteString.EMPTY;
+
+        List<ByteString> data = block.getData().getDataList();
+        for (int i = 0; i < data.size(); i++) {
+            envelopes.incrementAndGet();
+            try {
+                Common.Payload payload = Common.Payload.parseFrom(Common.Envelope.parseFrom(data.get(i)).getPayload());
+                Common.ChannelHeader header = Common.ChannelHeader.parseFrom(payload.getHeader().getChannelHeader());
+                if (header.getType() != Common.HeaderType.ENDORSER_TRANSACTION_VALUE) {
+                    continue;
+                }
+                byte validationCode = i < validationCodes.size() ? validationCodes.byteAt(i) : VALID;
+
+                CompletableFuture<CommitNotification> watcher = watchedTransactions.remove(header.getTxId());
+                if (watcher != null) {
+                    CommitNotification notification = new CommitNotification(header.getTxId(), blockNumber, validationCode == VALID, validationCode);
+                    dispatcher.execute(() -> watcher.complete(notification));
+                }
+
+                String chaincodeId = FabricProposal.ChaincodeHeaderExtension.parseFrom(header.getExtension()).getChaincodeId().getName();
+                if (isSubscribed(chaincodeId)) {
+                    Transaction transaction = new Transaction(header.getTxId(), blockNumber, validationCode == VALID, payload.getData());
+                    dispatchInOrder(CompletableFuture.supplyAsync(() -> decode(transaction), decoders));
+                }
+            } catch (InvalidProtocolBufferException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean isSubscribed(String chaincodeId) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.chaincodeId.equals(chaincodeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Chains the delivery behind the one of the previous transaction, so decoding runs in parallel but listeners see
+     * the transactions in block order. A failed decoding or delivery is reported and skipped, so it never stops the
+     * transactions after it.
+     */
+    private synchronized void dispatchInOrder(CompletableFuture<List<ChaincodeEventNotification>> events) {
+        CompletableFuture<List<ChaincodeEventNotification>> notifications = events.exceptionally(error -> {
+            error.printStackTrace();
+            return Collections.emptyList();
+        });
+        tail = tail.exceptionally(error -> {
+            error.printStackTrace();
+            return null;
+        }).thenAcceptBothAsync(notifications, (previous, transactionEvents) -> transactionEvents.forEach(this::deliver), dispatcher);
+    }
+
+    private List<ChaincodeEventNotification> decode(Transaction transaction) {
+        decoded.incrementAndGet();
+        try {
+            List<ChaincodeEventNotification> notifications = new ArrayList<>();
+            for (FabricTransaction.TransactionAction action : FabricTransaction.Transaction.parseFrom(transaction.data).getActionsList()) {
+                FabricTransaction.ChaincodeActionPayload actionPayload = FabricTransaction.ChaincodeActionPayload.parseFrom(action.getPayload());
+                FabricProposalResponse.ProposalResponsePayload responsePayload =
+                        FabricProposalResponse.ProposalResponsePayload.parseFrom(actionPayload.getAction().getProposalResponsePayload());
+                ByteString events = FabricProposal.ChaincodeAction.parseFrom(responsePayload.getExtension()).getEvents();
+                if (events.isEmpty()) {
+                    continue;
+                }
+                ChaincodeEventOuterClass.ChaincodeEvent event = ChaincodeEventOuterClass.ChaincodeEvent.parseFrom(events);
+                notifications.add(new ChaincodeEventNotification(transaction.transactionId, transaction.blockNumber,
+                        transaction.valid, event.getChaincodeId(), event.getEventName(), event.getPayload().toByteArray()));
+            }
+            return notifications;
+        } catch (InvalidProtocolBufferException | RuntimeException e) {
+            e.printStackTrace();
+            return Collections.emptyList();
+        }
+    }
+
+    private void deliver(ChaincodeEventNotification notification) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.matches(notification)) {
+                delivered.incrementAndGet();
+                try {
+                    subscription.listener.accept(notification);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Block events: envelopes=%d, decoded=%d, delivered=%d, watched=%d, subscriptions=%d",
+                envelopes.get(), decoded.get(), delivered.get(), watchedTransactions.size(), subscriptions.size());
+    }
+
+    public final class Subscription {
+
+        private final String chaincodeId;
+        private final String eventName;
+        private final Consumer<ChaincodeEventNotification> listener;
+
+        private Subscription(String chaincodeId, String eventName, Consumer<ChaincodeEventNotification> listener) {
+            this.chaincodeId = chaincodeId;
+            this.eventName = eventName;
+            this.listener = listener;
+        }
+
+        private boolean matches(ChaincodeEventNotification notification) {
+            return chaincodeId.equals(notification.getChaincodeId())
+                    && (eventName == null || eventName.equals(notification.getEventName()));
+        }
+
+        public void cancel() {
+            subscriptions.remove(this);
+        }
+    }
+
+    private static final class Transaction {
+
+        private final String transactionId;
+        private final long blockNumber;
+        private final boolean valid;
+        private final ByteString data;
+
+        Transaction(String transactionId, long blockNumber, boolean valid, ByteString data) {
+            this.transactionId = transactionId;
+            this.blockNumber = blockNumber;
+            this.valid = valid;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.JsonObject;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Blocking view of a {@link FabricClient} meant to be called from virtual threads.
+ *
+ * Every wait is bounded: proposals by the client's proposal wait time and commits by {@code commitTimeout}.
+ * Nothing in here holds a monitor while waiting, so a blocked call unmounts its virtual thread instead of pinning the carrier.
+ */
+public class BlockingFabricClient {
+
+    private final FabricClient fabricClient;
+    private final Duration commitTimeout;
+
+    public BlockingFabricClient(FabricClient fabricClient, Duration proposalTimeout, Duration commitTimeout) {
+        this.fabricClient = fabricClient;
+        this.commitTimeout = commitTimeout;
+        fabricClient.setProposalWaitTime(proposalTimeout.toMillis());
+    }
+
+    /**
+     * Endorses, orders and waits for the commit of a transaction.
+     *
+     * @return the block holding the transaction, empty if the endorsement was rejected
+     * @throws TimeoutException if the transaction is not committed within the commit timeout
+     */
+    public Optional<BlockInfo> invoke(ChaincodeID chaincodeID, String function, String... args) throws TimeoutException {
+        CompletableFuture<BlockInfo> future = fabricClient.invoke(chaincodeID, function, args);
+        if (future == null) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.ofNullable(future.get(commitTimeout.toNanos(), TimeUnit.NANOSECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new RuntimeException(format("Interrupted while waiting for %s to commit", function), e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    public <T> Optional<T> query(ChaincodeID chaincodeID, String function, String[] args, Function<JsonObject, T> transformer) {
+        return fabricClient.query(chaincodeID, function, args, transformer);
+    }
+
+    public FabricClient getFabricClient() {
+        return fabricClient;
+    }
+}
@@ -0,0 +1,141 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.protos.peer.Query;
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import static java.lang.String.format;
+
+/**
+ * Installs and instantiates a chaincode only where it is missing.
+ *
+ * For each channel, the installed and instantiated chaincodes of all peers are queried in parallel. The chaincode is
+ * then installed on the peers that lack it and instantiated unless one of the peers already runs that version on the
+ * channel.
+ * A chaincode version found deployed is remembered, so later calls with it return without contacting the peers.
+ */
+public class ChaincodeDeployer {
+
+    private final FabricClient fabricClient;
+    private final Executor executor;
+    private final Set<String> deployed = ConcurrentHashMap.newKeySet();
+
+    public ChaincodeDeployer(FabricClient fabricClient, Executor executor) {
+        this.fabricClient = fabricClient;
+        this.executor = executor;
+    }
+
+    /**
+     * Deploys the chaincode on every channel of the client.
+     *
+     * @return the block of the instantiation on the default channel, {@code null} if the chaincode was already
+     * instantiated there or could not be
+     */
+    public BlockInfo deploy(ChaincodeID chaincodeID, String chaincodeSourceLocation) {
+        BlockInfo defaultChannelBlock = null;
+        for (String channelName : fabricClient.getChannelNames()) {
+            BlockInfo blockInfo = deploy(fabricClient.shard(channelName), chaincodeID, chaincodeSourceLocation);
+            if (fabricClient.defaultShard().getName().equals(channelName)) {
+                defaultChannelBlock = blockInfo;
+            }
+        }
+        return defaultChannelBlock;
+    }
+
+    private BlockInfo deploy(ChannelShard shard, ChaincodeID chaincodeID, String chaincodeSourceLocation) {
+        Channel channel = shard.initialized(fabricClient.startupReport);
+        String cacheKey = channel.getName() + "/" + chaincodeID.getName() + ":" + chaincodeID.getVersion();
+        if (deployed.contains(cacheKey)) {
+            return null;
+        }
+
+        List<Peer> peers = new ArrayList<>(shard.peers);
+        Map<Peer, CompletableFuture<List<Query.ChaincodeInfo>>> installed = new LinkedHashMap<>();
+        Map<Peer, CompletableFuture<List<Query.ChaincodeInfo>>> instantiated = new LinkedHashMap<>();
+        for (Peer peer : peers) {
+            installed.put(peer, supply(() -> fabricClient.hfClient.queryInstalledChaincodes(peer)));
+            instantiated.put(peer, supply(() -> channel.queryInstantiatedChaincodes(peer)));
+        }
+
+        List<Peer> missing = new ArrayList<>();
+        boolean running = false;
+        for (Peer peer : peers) {
+            if (!contains(join(installed.get(peer)), chaincodeID)) {
+                missing.add(peer);
+            }
+            for (Query.ChaincodeInfo info : join(instantiated.get(peer))) {
+                if (info.getName().equals(chaincodeID.getName())) {
+                    if (info.getVersion().equals(chaincodeID.getVersion())) {
+                        running = true;
+                    } else {
+                        System.out.println(format("Peer %s runs %s:%s, upgrading to %s is not supported",
+                                peer.getName(), info.getName(), info.getVersion(), chaincodeID.getVersion()));
+                    }
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            System.out.println(format("Installing %s:%s on %d peers", chaincodeID.getName(), chaincodeID.getVersion(), missing.size()));
+            fabricClient.installChaincode(fabricClient.hfClient, chaincodeID, chaincodeSourceLocation, missing);
+        }
+
+        if (running) {
+            System.out.println(format("%s:%s is already instantiated on %s", chaincodeID.getName(), chaincodeID.getVersion(), channel.getName()));
+            deployed.add(cacheKey);
+            return null;
+        }
+
+        BlockInfo blockInfo = fabricClient.instantiateChaincode(fabricClient.hfClient, channel, chaincodeID);
+        if (blockInfo != null) {
+            deployed.add(cacheKey);
+        }
+        return blockInfo;
+    }
+
+    private static boolean contains(List<Query.ChaincodeInfo> chaincodes, ChaincodeID chaincodeID) {
+        for (Query.ChaincodeInfo info : chaincodes) {
+            if (info.getName().equals(chaincodeID.getName()) && info.getVersion().equals(chaincodeID.getVersion())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompletableFuture<List<Query.ChaincodeInfo>> supply(PeerQuery query) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return query.run();
+            } catch (InvalidArgumentException | ProposalException e) {
+                throw new RuntimeException(e);
+            }
+        }, executor);
+    }
+
+    private static List<Query.ChaincodeInfo> join(CompletableFuture<List<Query.ChaincodeInfo>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @FunctionalInterface
+    private interface PeerQuery {
+        List<Query.ChaincodeInfo> run() throws InvalidArgumentException, ProposalException;
+    }
+}
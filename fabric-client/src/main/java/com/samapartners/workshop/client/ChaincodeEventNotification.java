@@ -0,0 +1,59 @@
+package com.samapartners.workshop.client;
+
+/**
+ * An event set by a chaincode in a committed transaction.
+ */
+public final class ChaincodeEventNotification {
+
+    private final String transactionId;
+    private final long blockNumber;
+    private final boolean valid;
+    private final String chaincodeId;
+    private final String eventName;
+    private final byte[] payload;
+
+    public ChaincodeEventNotification(String transactionId, long blockNumber, boolean valid, String chaincodeId, String eventName, byte[] payload) {
+        this.transactionId = transactionId;
+        this.blockNumber = blockNumber;
+        this.valid = valid;
+        this.chaincodeId = chaincodeId;
+        this.eventName = eventName;
+        this.payload = payload;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public String getChaincodeId() {
+        return chaincodeId;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "ChaincodeEventNotification{" +
+                "transactionId='" + transactionId + '\'' +
+                ", blockNumber=" + blockNumber +
+                ", valid=" + valid +
+                ", chaincodeId='" + chaincodeId + '\'' +
+                ", eventName='" + eventName + '\'' +
+                ", payload=" + payload.length + " bytes" +
+                '}';
+    }
+}
@@ -0,0 +1,147 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.ChannelEndpoints;
+import org.hyperledger.fabric.sdk.EventHub;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.Orderer;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.exception.EventHubException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.TransactionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A channel of the client together with the peers, orderers and event hubs connected to it.
+ *
+ * The SDK binds every peer, orderer and event hub object to a single channel, so each shard has its own objects even
+ * when the channels share the same network endpoints.
+ */
+final class ChannelShard {
+
+    final Channel channel;
+    final List<Peer> peers;
+    final List<Orderer> orderers;
+    final List<EventHub> eventHubs;
+    volatile BlockCache blockCache;
+
+    private volatile boolean initialized;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    ChannelShard(Channel channel, List<Peer> peers, List<Orderer> orderers, List<EventHub> eventHubs) {
+        this.channel = channel;
+        this.peers = peers;
+        this.orderers = orderers;
+        this.eventHubs = eventHubs;
+    }
+
+    String getName() {
+        return channel.getName();
+    }
+
+    /**
+     * The channel, connecting its event hubs and initializing it on first use.
+     */
+    Channel initialized(StartupReport report) {
+        if (initialized) {
+            return channel;
+        }
+
+        lock.lock();
+        try {
+            if (!initialized) {
+                report.run(channel.getName() + ".initialize", () -> {
+                    try {
+                        for (EventHub eventHub : eventHubs) {
+                            channel.addEventHub(eventHub);
+                        }
+                        channel.initialize();
+                    } catch (InvalidArgumentException | TransactionException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                initialized = true;
+                System.out.println(report);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return channel;
+    }
+
+    /**
+     * The peer for requests any peer can answer, such as block lookups.
+     *
+     * @throws IllegalStateException if every peer of the channel was removed
+     */
+    Peer firstPeer() {
+        return firstPeer(channel, peers);
+    }
+
+    static Peer firstPeer(Channel channel, List<Peer> peers) {
+        for (Peer peer : peers) {
+            return peer;
+        }
+        throw new IllegalStateException("No peer left on channel " + channel.getName());
+    }
+
+    /**
+     * Detaches the peers of that name from the channel and closes their connections.
+     *
+     * @return the removed peers
+     */
+    List<Peer> removePeer(String peerName) {
+        List<Peer> removed = new ArrayList<>();
+        for (Peer peer : peers) {
+            if (peer.getName().equals(peerName)) {
+                peers.remove(peer);
+                ChannelEndpoints.remove(channel, peer);
+                removed.add(peer);
+            }
+        }
+        return removed;
+    }
+
+    void removeOrderer(String ordererName) {
+        for (Orderer orderer : orderers) {
+            if (orderer.getName().equals(ordererName)) {
+                orderers.remove(orderer);
+                ChannelEndpoints.remove(channel, orderer);
+            }
+        }
+    }
+
+    /**
+     * Adds an event hub, which is connected right away if the channel is already initialized.
+     */
+    void addEventHub(EventHub eventHub, HFClient client) {
+        lock.lock();
+        try {
+            eventHubs.add(eventHub);
+            if (initialized) {
+                ChannelEndpoints.connect(channel, client, eventHub);
+            }
+        } catch (InvalidArgumentException | EventHubException e) {
+            throw new RuntimeException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void removeEventHub(String eventHubName) {
+        lock.lock();
+        try {
+            for (EventHub eventHub : new ArrayList<>(eventHubs)) {
+                if (eventHub.getName().equals(eventHubName)) {
+                    eventHubs.remove(eventHub);
+                    ChannelEndpoints.remove(channel, eventHub);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.samapartners.workshop.client;
+
+/**
+ * A transaction seen in a committed block. Holds no reference to the block itself, so queued notifications stay small.
+ */
+public final class CommitNotification {
+
+    private final String transactionId;
+    private final long blockNumber;
+    private final boolean valid;
+    private final byte validationCode;
+
+    public CommitNotification(String transactionId, long blockNumber, boolean valid, byte validationCode) {
+        this.transactionId = transactionId;
+        this.blockNumber = blockNumber;
+        this.valid = valid;
+        this.validationCode = validationCode;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public long getBlockNumber() {
+        return blockNumber;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public byte getValidationCode() {
+        return validationCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CommitNotification{" +
+                "transactionId='" + transactionId + '\'' +
+                ", blockNumber=" + blockNumber +
+                ", valid=" + valid +
+                ", validationCode=" + validationCode +
+                '}';
+    }
+}
@@ -0,0 +1,152 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.BlockEvent;
+import org.hyperledger.fabric.sdk.BlockListener;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes a {@link CommitNotification} for every transaction of the blocks received from the event hubs.
+ *
+ * Each subscriber gets a buffer of {@code bufferCapacity} notifications and receives them as it requests them.
+ * The event hub thread is never blocked: once a subscriber's buffer is full, further notifications for it are dropped
+ * and counted in {@link #getDropped()}. The subscriber still receives every notification before the first one it
+ * lost, and then, in place of the next one, an {@link IllegalStateException} naming the first lost transaction; its
+ * subscription is cancelled, so it never sees a stream with a gap.
+ */
+public class CommitPublisher implements Flow.Publisher<CommitNotification>, BlockListener, AutoCloseable {
+
+    private final SubmissionPublisher<Entry> publisher;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public CommitPublisher(Executor executor, int bufferCapacity) {
+        this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CommitNotification> subscriber) {
+        publisher.subscribe(new GapGuard(subscriber));
+    }
+
+    @Override
+    public void received(BlockEvent blockEvent) {
+        if (!publisher.hasSubscribers()) {
+            return;
+        }
+
+        long blockNumber = blockEvent.getBlockNumber();
+        for (BlockEvent.TransactionEvent transactionEvent : blockEvent.getTransactionEvents()) {
+            CommitNotification notification = new CommitNotification(
+                    transactionEvent.getTransactionID(),
+                    blockNumber,
+                    transactionEvent.isValid(),
+                    transactionEvent.getValidationCode());
+
+            publisher.offer(new Entry(sequence.incrementAndGet(), notification), (subscriber, entry) -> {
+                dropped.incrementAndGet();
+                ((GapGuard) subscriber).lost(entry);
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Number of notifications dropped because a subscriber did not keep up.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    private static final class Entry {
+
+        private final long sequence;
+        private final CommitNotification notification;
+
+        Entry(long sequence, CommitNotification notification) {
+            this.sequence = sequence;
+            this.notification = notification;
+        }
+    }
+
+    /**
+     * Passes the notifications on to a subscriber until the first one after a dropped notification, which it turns
+     * into an error. Runs on the publisher's delivery thread, so the error is signalled in order with the items.
+     */
+    private static final class GapGuard implements Flow.Subscriber<Entry> {
+
+        private final Flow.Subscriber<? super CommitNotification> subscriber;
+        private volatile Entry firstLost;
+        private Flow.Subscription subscription;
+        private boolean done;
+
+        GapGuard(Flow.Subscriber<? super CommitNotification> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void lost(Entry entry) {
+            if (firstLost == null) {
+                firstLost = entry;
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(Entry entry) {
+            if (done) {
+                return;
+            }
+            Entry lost = firstLost;
+            if (lost != null && entry.sequence > lost.sequence) {
+                subscription.cancel();
+                failLost(lost);
+                return;
+            }
+            subscriber.onNext(entry.notification);
+        }
+
+        private void failLost(Entry lost) {
+            done = true;
+            subscriber.onError(new IllegalStateException(format(
+                    "Subscriber did not keep up, lost commit notifications from transaction %s in block %d on",
+                    lost.notification.getTransactionId(), lost.notification.getBlockNumber())));
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!done) {
+                done = true;
+                subscriber.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) {
+                return;
+            }
+            Entry lost = firstLost;
+            if (lost != null) {
+                failLost(lost);
+            } else {
+                done = true;
+                subscriber.onComplete();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Crypto suite that verifies endorsements without parsing and validating the endorser certificate every time.
+ *
+ * The first signature of an identity is checked by the wrapped suite, which also validates the certificate against
+ * its trust store. Once that succeeded the parsed certificate is kept by its identity bytes, and later signatures of
+ * the same identity are checked directly with a {@link Signature} of the verifying thread. Everything else is
+ * delegated. The time spent per verification is recorded.
+ */
+public class EndorsementVerifier implements CryptoSuite {
+
+    private static final int MAX_CACHED_IDENTITIES = 1_024;
+
+    private final CryptoSuite delegate;
+    private final Map<ByteBuffer, Certificate> trustedCertificates = new ConcurrentHashMap<>();
+    private final ThreadLocal<Map<String, Signature>> signatures = ThreadLocal.withInitial(HashMap::new);
+
+    private final AtomicLong verifications = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong verifyNanos = new AtomicLong();
+    private final AtomicLong maxVerifyNanos = new AtomicLong();
+
+    public EndorsementVerifier(CryptoSuite delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean verify(byte[] certificate, String signatureAlgorithm, byte[] signature, byte[] plainText) throws CryptoException {
+        long start = System.nanoTime();
+        try {
+            ByteBuffer identity = ByteBuffer.wrap(certificate);
+            Certificate trusted = trustedCertificates.get(identity);
+            if (trusted != null) {
+                cacheHits.incrementAndGet();
+                return verify(trusted, signatureAlgorithm, signature, plainText);
+            }
+
+            boolean verified = delegate.verify(certificate, signatureAlgorithm, signature, plainText);
+            if (verified) {
+                trust(certificate);
+            }
+            return verified;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            verifications.incrementAndGet();
+            verifyNanos.addAndGet(elapsed);
+            maxVerifyNanos.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    private boolean verify(Certificate certificate, String signatureAlgorithm, byte[] signature, byte[] plainText) throws CryptoException {
+        try {
+            Signature verifier = signatures.get().get(signatureAlgorithm);
+            if (verifier == null) {
+                verifier = Signature.getInstance(signatureAlgorithm);
+                signatures.get().put(signatureAlgorithm, verifier);
+            }
+            verifier.initVerify(certificate);
+            verifier.update(plainText);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException("Cannot verify signature. Error is: " + e.getMessage(), e);
+        }
+    }
+
+    private void trust(byte[] certificate) {
+        try {
+            Certificate parsed = CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(certificate));
+            if (trustedCertificates.size() >= MAX_CACHED_IDENTITIES) {
+                trustedCertificates.clear();
+            }
+            trustedCertificates.put(ByteBuffer.wrap(certificate.clone()), parsed);
+        } catch (GeneralSecurityException e) {
+            // the wrapped suite accepted it, keep verifying through it
+        }
+    }
+
+    @Override
+    public String toString() {
+        long count = verifications.get();
+        return String.format("Endorsement verification: verified=%d, cached=%d, avg=%dus, max=%dus, identities=%d",
+                count, cacheHits.get(),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(verifyNanos.get() / count),
+                TimeUnit.NANOSECONDS.toMicros(maxVerifyNanos.get()), trustedCertificates.size());
+    }
+
+    @Override
+    public void init() throws CryptoException, InvalidArgumentException {
+        delegate.init();
+    }
+
+    @Override
+    public void setProperties(Properties properties) throws CryptoException, InvalidArgumentException {
+        delegate.setProperties(properties);
+    }
+
+    @Override
+    public Properties getProperties() {
+        return delegate.getProperties();
+    }
+
+    @Override
+    public void loadCACertificates(Collection<Certificate> certificates) throws CryptoException {
+        delegate.loadCACertificates(certificates);
+    }
+
+    @Override
+    public void loadCACertificatesAsBytes(Collection<byte[]> certificates) throws CryptoException {
+        delegate.loadCACertificatesAsBytes(certificates);
+    }
+
+    @Override
+    public KeyPair keyGen() throws CryptoException {
+        return delegate.keyGen();
+    }
+
+    @Override
+    public byte[] sign(PrivateKey key, byte[] plainText) throws CryptoException {
+        return delegate.sign(key, plainText);
+    }
+
+    @Override
+    public byte[] hash(byte[] plainText) {
+        return delegate.hash(plainText);
+    }
+}
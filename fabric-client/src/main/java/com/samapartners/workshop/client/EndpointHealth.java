@@ -0,0 +1,157 @@
+package com.samapartners.workshop.client;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Latency tracking, adaptive timeouts and circuit breaking per peer or orderer.
+ *
+ * The timeout of an endpoint is its recent 99th percentile latency times {@code timeoutMultiplier}, kept between
+ * {@code minTimeoutMillis} and the caller's ceiling; until enough calls have been seen the ceiling is used.
+ * After {@code failureThreshold} consecutive failures the circuit of an endpoint opens and no requests are sent to it
+ * for {@code openMillis}. Then a single probe request is let through, which closes the circuit on success and opens it
+ * again on failure. Time is read from the injected clock, so tests can simulate latencies without sleeping.
+ */
+public class EndpointHealth {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final int WINDOW = 128;
+    private static final int MIN_SAMPLES = 10;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+    private final double timeoutMultiplier;
+    private final long minTimeoutMillis;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    public EndpointHealth(LongSupplier nanoClock, double timeoutMultiplier, long minTimeoutMillis, int failureThreshold, long openMillis) {
+        this.nanoClock = nanoClock;
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minTimeoutMillis = minTimeoutMillis;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    public static EndpointHealth defaults() {
+        return new EndpointHealth(System::nanoTime, 2.0, 500, 5, 10_000);
+    }
+
+    public long now() {
+        return nanoClock.getAsLong();
+    }
+
+    /**
+     * Whether a request may be sent to the endpoint. While the circuit is half open only the first caller gets a yes.
+     */
+    public boolean allowRequest(String endpoint) {
+        return endpoint(endpoint).allowRequest(now());
+    }
+
+    public long timeoutMillis(String endpoint, long ceilingMillis) {
+        long p99 = endpoint(endpoint).percentileNanos(0.99);
+        if (p99 < 0) {
+            return ceilingMillis;
+        }
+        long adaptive = (long) (TimeUnit.NANOSECONDS.toMillis(p99) * timeoutMultiplier);
+        return Math.max(minTimeoutMillis, Math.min(ceilingMillis, adaptive));
+    }
+
+    public void recordSuccess(String endpoint, long latencyNanos) {
+        endpoint(endpoint).record(latencyNanos, true, now());
+    }
+
+    public void recordFailure(String endpoint, long latencyNanos) {
+        endpoint(endpoint).record(latencyNanos, false, now());
+    }
+
+    /**
+     * A request that failed before it reached the endpoint, for instance while it was signed. Counts neither for nor
+     * against the endpoint, but lets the next probe through if it was the probe.
+     */
+    public void recordAborted(String endpoint) {
+        endpoint(endpoint).abort();
+    }
+
+    public State state(String endpoint) {
+        return endpoint(endpoint).state(now());
+    }
+
+    public String describe(String endpoint) {
+        Endpoint stats = endpoint(endpoint);
+        long p50 = stats.percentileNanos(0.5);
+        long p99 = stats.percentileNanos(0.99);
+        return String.format("%s: state=%s, p50=%dms, p99=%dms", endpoint, stats.state(now()),
+                p50 < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(p50), p99 < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(p99));
+    }
+
+    private Endpoint endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, name -> new Endpoint());
+    }
+
+    private final class Endpoint {
+
+        private final long[] latencies = new long[WINDOW];
+        private int samples;
+        private int next;
+        private int consecutiveFailures;
+        private long openedAt;
+        private State state = State.CLOSED;
+        private boolean probeInFlight;
+
+        synchronized boolean allowRequest(long now) {
+            switch (state(now)) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (probeInFlight) {
+                        return false;
+                    }
+                    probeInFlight = true;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        synchronized State state(long now) {
+            if (state == State.OPEN && now - openedAt >= openNanos) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+            }
+            return state;
+        }
+
+        synchronized void record(long latencyNanos, boolean success, long now) {
+            latencies[next] = latencyNanos;
+            next = (next + 1) % WINDOW;
+            samples = Math.min(samples + 1, WINDOW);
+
+            if (success) {
+                consecutiveFailures = 0;
+                state = State.CLOSED;
+            } else if (state(now) == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = now;
+            }
+            probeInFlight = false;
+        }
+
+        synchronized void abort() {
+            probeInFlight = false;
+        }
+
+        synchronized long percentileNanos(double percentile) {
+            if (samples < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(percentile * samples) - 1];
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.samapartners.workshop.client;
 
+import com.samapartners.workshop.sample.SampleOrg;
 import com.samapartners.workshop.sample.SampleStore;
 import com.samapartners.workshop.sample.SampleUser;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
 import org.hyperledger.fabric.sdk.*;
 import org.hyperledger.fabric.sdk.exception.CryptoException;
 import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
@@ -12,18 +14,31 @@ import org.hyperledger.fabric.sdk.exception.TransactionException;
 import org.hyperledger.fabric.sdk.security.CryptoSuite;
 
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonValue;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
 import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -35,11 +50,44 @@ public class FabricClient {
 
     private static final String HOST = "10.75.40.65";
 
+    /**
+     * System property with the comma separated names of the channels to use, the first one is the default channel.
+     */
+    public static final String CHANNELS_PROPERTY = "workshop.channels";
+    static final String DEFAULT_CHANNEL = "mychannel";
+
+    static final Map<String, byte[]> INVOKE_TRANSIENT_DATA = invokeTransientData();
+    static final String GZIP_ENCODING = "gzip";
+    static final int TRACES_PER_QUERY = 100;
+    /**
+     * Appended to the function of a query to accept a gzipped payload. A suffix rather than a transient entry, since
+     * shims before 1.1 cannot read the transient map.
+     */
+    static final String ACCEPT_GZIP_SUFFIX = "#" + GZIP_ENCODING;
+
     HFClient hfClient;
     Channel channel;
+    SampleOrg sampleOrg;
     List<Peer> peers;
     List<Orderer> orderers;
     List<EventHub> eventHubs;
+    Executor callbackExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    long proposalWaitTime = TimeUnit.SECONDS.toMillis(20);
+    long admittedCommitWaitTime = TimeUnit.MINUTES.toMillis(2);
+    boolean acceptCompressedQueries = true;
+    CommitPublisher commitPublisher;
+    BlockEventPipeline blockEventPipeline;
+    TopologyWatcher topologyWatcher;
+    OrdererSelector ordererSelector = OrdererSelector.defaults();
+    EndpointHealth endpointHealth = EndpointHealth.defaults();
+    AdmissionController admissionController;
+    ProposalPipeline proposalPipeline;
+    Tracer tracer = Tracer.fromSystemProperty();
+    StartupReport startupReport = new StartupReport();
+    final Map<String, ChannelShard> shards = new ConcurrentHashMap<>();
+    final List<String> channelNames = new CopyOnWriteArrayList<>();
+    ShardFunction shardFunction = ShardFunction.hashing();
+    ChaincodeDeployer chaincodeDeployer;
 
 
     public static void main(String[] args) {
@@ -47,50 +95,140 @@ public class FabricClient {
     }
 
     public void runAll() {
-        try {
 
-            String organizationName = "org1";
-            String mspId = "org1.example.com";
-            String organizationMspId = "Org1MSP";
+        StartupReport report = bootstrap();
 
+        ChaincodeID chaincodeID = ChaincodeID.newBuilder()
+                .setName("demo")
+                .setVersion("11")
+                .build();
 
-            //HFCLient config
-            hfClient = HFClient.createNewInstance();
-            hfClient.setCryptoSuite(CryptoSuite.Factory.getCryptoSuite());
-            SampleUser peerOfOrganization1Admin = enroll("Admin", organizationName, organizationMspId);
+        BlockInfo blockInfo = report.time("deploy", () -> chaincodeDeployer().deploy(chaincodeID, "C:/Users/alacambra.SAMA/git/workshop/fabric-client/deployment"));
+        System.out.println("Instantiation on block " + Optional.ofNullable(blockInfo).map(BlockInfo::getBlockNumber).orElse(-1L));
+        System.out.println(report);
 
-            hfClient.setUserContext(peerOfOrganization1Admin);
-            peers = initPeers(hfClient);
-            orderers = initOrderers(hfClient);
-            eventHubs = initEventHubs(hfClient);
+        invoke(chaincodeID, "put", new String[]{"test"});
+        String result = query(chaincodeID, "get", new String[]{"none"}, JsonValue::toString).orElse("none");
+        System.out.println("result=" + result);
+    }
 
-//            channel = createChannel(hfClient, orderers.get(0), peers.get(0));
+    /**
+     * Prepares the client for its first request.
+     *
+     * Enrollment and the creation of peers, orderers and event hubs run in parallel. Connecting the event hubs and
+     * initializing the channel are deferred until a request needs the channel, see {@link #initializedChannel()}.
+     *
+     * @return the time spent in each phase, the deferred channel initialization is added to it when it happens
+     */
+    public StartupReport bootstrap() {
+
+        StartupReport report = new StartupReport();
+        startupReport = report;
+
+        sampleOrg = report.time("topology", () -> NetworkTopology.fromSystemProperty(HOST));
+
+        //HFCLient config
+        hfClient = report.time("client", () -> {
             try {
-                channel = initChannel(hfClient);
-                channel.addPeer(peers.get(0));
-                channel.addOrderer(orderers.get(0));
-                channel.addEventHub(eventHubs.get(0));
-                channel.initialize();
-            } catch (TransactionException e) {
+                HFClient client = HFClient.createNewInstance();
+                client.setCryptoSuite(new EndorsementVerifier(CryptoSuite.Factory.getCryptoSuite()));
+                return client;
+            } catch (CryptoException | InvalidArgumentException e) {
                 throw new RuntimeException(e);
             }
+        });
+        // the health tracker may be replaced, so read its clock on each call
+        proposalPipeline = ProposalPipeline.defaults(hfClient, () -> endpointHealth.now());
+
+        ExecutorService bootstrapExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        try (bootstrapExecutor) {
+            CompletableFuture<SampleUser> admin = CompletableFuture.supplyAsync(
+                    () -> report.time("enroll", () -> enroll("Admin", sampleOrg.getName(), sampleOrg.getMSPID())), bootstrapExecutor);
+            CompletableFuture<List<Peer>> newPeers = CompletableFuture.supplyAsync(
+                    () -> report.time("peers", () -> initPeers(hfClient, sampleOrg)), bootstrapExecutor);
+            CompletableFuture<List<Orderer>> newOrderers = CompletableFuture.supplyAsync(
+                    () -> report.time("orderers", () -> initOrderers(hfClient, sampleOrg)), bootstrapExecutor);
+            CompletableFuture<List<EventHub>> newEventHubs = CompletableFuture.supplyAsync(
+                    () -> report.time("eventhubs", () -> initEventHubs(hfClient, sampleOrg)), bootstrapExecutor);
+
+            hfClient.setUserContext(admin.join());
+            peers = newPeers.join();
+            orderers = newOrderers.join();
+            eventHubs = newEventHubs.join();
+        } catch (InvalidArgumentException e) {
+            throw new RuntimeException(e);
+        } catch (CompletionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+//            channel = createChannel(hfClient, orderers.get(0), peers.get(0));
+        report.run("channel", () -> {
+            List<String> names = Arrays.asList(System.getProperty(CHANNELS_PROPERTY, DEFAULT_CHANNEL).trim().split("\\s*,\\s*"));
+            ChannelShard defaultShard = newShard(names.get(0), peers, orderers, eventHubs);
+            channel = defaultShard.channel;
+            addShard(defaultShard);
+            for (String channelName : names.subList(1, names.size())) {
+                addShard(newShard(channelName));
+            }
+        });
+
+        String topologyFile = System.getProperty(NetworkTopology.TOPOLOGY_FILE_PROPERTY);
+        if (topologyFile != null) {
+            topologyWatcher = new TopologyWatcher(new File(topologyFile), this).start(10, TimeUnit.SECONDS);
+        }
+
+        System.out.println(report);
+        return report;
+    }
+
+    /**
+     * The default channel, connecting its event hubs and initializing it on first use.
+     */
+    Channel initializedChannel() {
+        return defaultShard().initialized(startupReport);
+    }
 
-            ChaincodeID chaincodeID = ChaincodeID.newBuilder()
-                    .setName("demo")
-                    .setVersion("11")
-                    .build();
+    ChannelShard defaultShard() {
+        return shards.get(channelNames.get(0));
+    }
 
-            installChaincode(hfClient, chaincodeID, "C:/Users/alacambra.SAMA/git/workshop/fabric-client/deployment", peers);
-            BlockInfo blockInfo = instantiateChaincode(hfClient, channel, chaincodeID);
-            System.out.println("Instantiation on block " + Optional.ofNullable(blockInfo).map(BlockInfo::getBlockNumber).orElse(-1L));
+    ChannelShard shard(String channelName) {
+        ChannelShard shard = shards.get(channelName);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown channel " + channelName);
+        }
+        return shard;
+    }
 
-            invoke(chaincodeID, "put", new String[]{"test"});
-            String result = query(chaincodeID, "get", new String[]{"none"}, JsonValue::toString).orElse("none");
-            System.out.println("result=" + result);
+    private void addShard(ChannelShard shard) {
+        shards.put(shard.getName(), shard);
+        channelNames.add(shard.getName());
+    }
 
-        } catch (CryptoException | InvalidArgumentException e) {
+    /**
+     * A shard on its own peer, orderer and event hub objects for the endpoints of the current topology.
+     */
+    private ChannelShard newShard(String channelName) {
+        List<Peer> shardPeers = new CopyOnWriteArrayList<>();
+        for (String peerName : sampleOrg.getPeerNames()) {
+            shardPeers.add(newPeer(hfClient, peerName, sampleOrg.getPeerLocation(peerName)));
+        }
+        return newShard(channelName, shardPeers, initOrderers(hfClient, sampleOrg), initEventHubs(hfClient, sampleOrg));
+    }
+
+    private ChannelShard newShard(String channelName, List<Peer> shardPeers, List<Orderer> shardOrderers, List<EventHub> shardEventHubs) {
+        Channel shardChannel = initChannel(hfClient, channelName);
+        try {
+            for (Peer peer : shardPeers) {
+                shardChannel.addPeer(peer);
+            }
+            for (Orderer orderer : shardOrderers) {
+                shardChannel.addOrderer(orderer);
+            }
+        } catch (InvalidArgumentException e) {
             throw new RuntimeException(e);
         }
+        return new ChannelShard(shardChannel, shardPeers, shardOrderers, shardEventHubs);
     }
 
     public SampleUser enroll(String username, String organization, String mpsId) {
@@ -106,21 +244,141 @@ public class FabricClient {
         queryByChaincodeRequest.setArgs(args);
         queryByChaincodeRequest.setFcn(function);
         queryByChaincodeRequest.setChaincodeID(chaincodeID);
-        try {
-            List<ProposalResponse> proposalResponses = new ArrayList<>(channel.queryByChaincode(queryByChaincodeRequest));
+        return query(queryByChaincodeRequest, transformer);
+    }
 
-            ProposalResponse proposalResponse = proposalResponses.get(0);
-            if (proposalResponse.getStatus() != ChaincodeResponse.Status.SUCCESS) {
-                return Optional.empty();
-            }
+    /**
+     * Queries with binary arguments, which are passed to the chaincode as they are.
+     */
+    public <T> Optional<T> query(ChaincodeID chaincodeID, String function, byte[][] args, Function<JsonObject, T> transformer) {
+        QueryByChaincodeRequest queryByChaincodeRequest = hfClient.newQueryProposalRequest();
+        queryByChaincodeRequest.setArgBytes(args);
+        queryByChaincodeRequest.setFcn(function);
+        queryByChaincodeRequest.setChaincodeID(chaincodeID);
+        return query(queryByChaincodeRequest, transformer);
+    }
+
+    /**
+     * Queries with binary arguments and returns the raw response payload.
+     */
+    public Optional<byte[]> queryBytes(ChaincodeID chaincodeID, String function, byte[][] args) {
+        QueryByChaincodeRequest queryByChaincodeRequest = hfClient.newQueryProposalRequest();
+        queryByChaincodeRequest.setArgBytes(args);
+        queryByChaincodeRequest.setFcn(function);
+        queryByChaincodeRequest.setChaincodeID(chaincodeID);
+        return queryPayload(defaultShard(), queryByChaincodeRequest);
+    }
+
+    <T> Optional<T> query(QueryByChaincodeRequest queryByChaincodeRequest, Function<JsonObject, T> transformer) {
+        return query(defaultShard(), queryByChaincodeRequest, transformer);
+    }
+
+    <T> Optional<T> query(ChannelShard shard, QueryByChaincodeRequest queryByChaincodeRequest, Function<JsonObject, T> transformer) {
+        return query(shard, queryByChaincodeRequest, 0, transformer);
+    }
 
-            byte[] bytes = proposalResponses.get(0).getProposalResponse().getResponse().getPayload().toByteArray();
+    private <T> Optional<T> query(ChannelShard shard, QueryByChaincodeRequest queryByChaincodeRequest, int firstPeer, Function<JsonObject, T> transformer) {
+        return queryPayload(shard, queryByChaincodeRequest, firstPeer).map(bytes -> {
             System.out.println("Received  " + new String(bytes));
             JsonReader jsonReader = Json.createReader(new ByteArrayInputStream(bytes));
             JsonObject jsonObject = jsonReader.readObject();
-            T result = transformer.apply(jsonObject);
-            return Optional.ofNullable(result);
+            return transformer.apply(jsonObject);
+        });
+    }
+
+    private Optional<byte[]> queryPayload(ChannelShard shard, QueryByChaincodeRequest queryByChaincodeRequest) {
+        return queryPayload(shard, queryByChaincodeRequest, 0);
+    }
+
+    /**
+     * Queries the peers one at a time, starting with the {@code firstPeer}-th one, skipping those whose circuit is open,
+     * and returns the payload of the first one that answers, uncompressed if the chaincode sent it gzipped. Each peer
+     * gets its adaptive timeout.
+     */
+    private Optional<byte[]> queryPayload(ChannelShard shard, QueryByChaincodeRequest queryByChaincodeRequest, int firstPeer) {
+        Trace trace = tracer.start(shard.getName(), queryByChaincodeRequest.getChaincodeID(), queryByChaincodeRequest.getFcn());
+        try {
+            if (admissionController == null) {
+                return queryPeers(shard, queryByChaincodeRequest, firstPeer, trace);
+            }
+            long admissionStart = System.nanoTime();
+            AdmissionController.Permit permit = admissionController.acquire(queryByChaincodeRequest.getFcn());
+            if (trace != null) {
+                trace.span("admission", admissionStart);
+            }
+            boolean success = false;
+            try {
+                Optional<byte[]> payload = queryPeers(shard, queryByChaincodeRequest, firstPeer, trace);
+                // no peer answered, or the chaincode failed
+                success = payload.isPresent();
+                return payload;
+            } finally {
+                permit.release(success);
+            }
+        } finally {
+            tracer.finish(trace);
+        }
+    }
+
+    private Optional<byte[]> queryPeers(ChannelShard shard, QueryByChaincodeRequest queryByChaincodeRequest, int firstPeer, Trace trace) {
+        try {
+            if (trace != null) {
+                Map<String, byte[]> transientData = queryByChaincodeRequest.getTransientMap();
+                queryByChaincodeRequest.setTransientMap(trace.withContext(transientData == null ? Collections.emptyMap() : transientData));
+            }
+            Channel channel = shard.initialized(startupReport);
+
+            List<Peer> peers = new ArrayList<>(shard.peers);
+            for (int i = 0; i < peers.size(); i++) {
+                Peer peer = peers.get(Math.floorMod(firstPeer + i, peers.size()));
+                String endpoint = endpointName(peer);
+                if (!endpointHealth.allowRequest(endpoint)) {
+                    continue;
+                }
+                QueryByChaincodeRequest attempt = newQuery(queryByChaincodeRequest);
+                if (acceptCompressedQueries) {
+                    attempt.setFcn(attempt.getFcn() + ACCEPT_GZIP_SUFFIX);
+                }
+                attempt.setProposalWaitTime(endpointHealth.timeoutMillis(endpoint, proposalWaitTime));
 
+                long start = endpointHealth.now();
+                ProposalResponse proposalResponse;
+                try {
+                    proposalResponse = proposalPipeline.send(channel, attempt, Collections.singletonList(peer), trace).iterator().next();
+                } catch (InvalidArgumentException | ProposalException | RuntimeException e) {
+                    // a failure of the peer is in its response, this one happened before sending
+                    endpointHealth.recordAborted(endpoint);
+                    throw e;
+                }
+
+                if (!recordEndorsement(proposalResponse, endpointHealth.now() - start)) {
+                    System.out.println(format("Query on %s failed, %s", endpointHealth.describe(endpoint), proposalResponse.getMessage()));
+                    continue;
+                }
+                if (proposalResponse.getStatus() != ChaincodeResponse.Status.SUCCESS) {
+                    return Optional.empty();
+                }
+                long decodeStart = System.nanoTime();
+                FabricEvents.QueryDecodeEvent event = new FabricEvents.QueryDecodeEvent();
+                event.begin();
+                FabricProposalResponse.Response response = proposalResponse.getProposalResponse().getResponse();
+                byte[] payload = decodePayload(response);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.function = queryByChaincodeRequest.getFcn();
+                    event.compressed = GZIP_ENCODING.equals(response.getMessage());
+                    event.receivedBytes = response.getPayload().size();
+                    event.decodedBytes = payload.length;
+                    event.commit();
+                }
+                if (trace != null) {
+                    trace.span("decode", decodeStart);
+                }
+                return Optional.of(payload);
+            }
+
+            System.out.println(format("No peer answered the query %s", queryByChaincodeRequest.getFcn()));
+            return Optional.empty();
 
         } catch (InvalidArgumentException | ProposalException e) {
             e.printStackTrace();
@@ -128,37 +386,195 @@ public class FabricClient {
         }
     }
 
-    private CompletableFuture<BlockInfo> invoke(ChaincodeID chaincodeID, String functionName, String[] args) {
+    /**
+     * Records the outcome of a proposal for its peer. The SDK reports a peer that did not answer, or not in time, as a
+     * response without a protobuf payload; a chaincode error is an answer and keeps the peer healthy. The latency is
+     * the peer's own response time, measured when the proposal was sent.
+     *
+     * @param elapsedNanos the latency of a response that has no time of its own
+     * @return whether the peer answered
+     */
+    private boolean recordEndorsement(ProposalResponse proposalResponse, long elapsedNanos) {
+        boolean answered = proposalResponse.getProposalResponse() != null;
+        long peerLatency = ProposalStages.latencyNanos(proposalResponse);
+        long latencyNanos = peerLatency < 0 ? elapsedNanos : peerLatency;
+        if (proposalResponse.getPeer() != null) {
+            String endpoint = endpointName(proposalResponse.getPeer());
+            if (answered) {
+                endpointHealth.recordSuccess(endpoint, latencyNanos);
+            } else {
+                endpointHealth.recordFailure(endpoint, latencyNanos);
+            }
+        }
+        return answered;
+    }
+
+    static String endpointName(Peer peer) {
+        return peer.getName() + "@" + peer.getUrl();
+    }
+
+    static String endpointName(Orderer orderer) {
+        return orderer.getName() + "@" + orderer.getUrl();
+    }
+
+    static byte[] decodePayload(FabricProposalResponse.Response response) {
+        if (!GZIP_ENCODING.equals(response.getMessage())) {
+            return response.getPayload().toByteArray();
+        }
+        try (InputStream gzip = new GZIPInputStream(response.getPayload().newInput())) {
+            return gzip.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not decompress query payload", e);
+        }
+    }
+
+    public CompletableFuture<BlockInfo> invoke(ChaincodeID chaincodeID, String functionName, String[] args) {
 
         TransactionProposalRequest transactionProposalRequest = hfClient.newTransactionProposalRequest();
         transactionProposalRequest.setChaincodeID(chaincodeID);
         transactionProposalRequest.setFcn(functionName);
         transactionProposalRequest.setArgs(args);
+        return invoke(transactionProposalRequest, INVOKE_TRANSIENT_DATA);
+    }
 
-        Map<String, byte[]> transientProposalData = new HashMap<>();
-        transientProposalData.put("HyperLedgerFabric", "TransactionProposalRequest:JavaSDK".getBytes(UTF_8));
-        transientProposalData.put("method", "TransactionProposalRequest".getBytes(UTF_8));
-        transientProposalData.put("result", ":)".getBytes(UTF_8));
+    /**
+     * Invokes with binary arguments, which are passed to the chaincode as they are.
+     */
+    public CompletableFuture<BlockInfo> invoke(ChaincodeID chaincodeID, String functionName, byte[][] args) {
+
+        TransactionProposalRequest transactionProposalRequest = hfClient.newTransactionProposalRequest();
+        transactionProposalRequest.setChaincodeID(chaincodeID);
+        transactionProposalRequest.setFcn(functionName);
+        transactionProposalRequest.setArgBytes(args);
+        return invoke(transactionProposalRequest, INVOKE_TRANSIENT_DATA);
+    }
+
+    public CompletableFuture<BlockInfo> invoke(ChaincodeID chaincodeID, String functionName, ByteBuffer... args) {
+        return invoke(chaincodeID, functionName, toBytes(args));
+    }
+
+    public <T> Optional<T> query(ChaincodeID chaincodeID, String function, ByteBuffer[] args, Function<JsonObject, T> transformer) {
+        return query(chaincodeID, function, toBytes(args), transformer);
+    }
+
+    /**
+     * Uses the backing array of a buffer when it spans the whole array, and copies the remaining bytes otherwise.
+     */
+    static byte[][] toBytes(ByteBuffer[] buffers) {
+        byte[][] bytes = new byte[buffers.length][];
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+                bytes[i] = buffer.array();
+            } else {
+                bytes[i] = new byte[buffer.remaining()];
+                buffer.duplicate().get(bytes[i]);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Endorses and submits a transaction, after admission by the {@link AdmissionController} if one is set.
+     *
+     * @return completes with the commit block, or {@code null} if the endorsement was rejected
+     * @throws java.util.concurrent.RejectedExecutionException if the admission controller rejected the call
+     */
+    CompletableFuture<BlockInfo> invoke(TransactionProposalRequest transactionProposalRequest, Map<String, byte[]> transientProposalData) {
+        return invoke(defaultShard(), transactionProposalRequest, transientProposalData);
+    }
+
+    CompletableFuture<BlockInfo> invoke(ChannelShard shard, TransactionProposalRequest transactionProposalRequest, Map<String, byte[]> transientProposalData) {
+        Trace trace = tracer.start(shard.getName(), transactionProposalRequest.getChaincodeID(), transactionProposalRequest.getFcn());
+        CompletableFuture<BlockInfo> commit;
+        try {
+            commit = admit(shard, transactionProposalRequest,
+                    trace == null ? transientProposalData : trace.withContext(transientProposalData), trace);
+        } catch (RuntimeException e) {
+            tracer.finish(trace);
+            throw e;
+        }
+        if (commit == null) {
+            tracer.finish(trace);
+            return null;
+        }
+        return trace == null ? commit : commit.whenComplete((blockInfo, error) -> tracer.finish(trace));
+    }
+
+    private CompletableFuture<BlockInfo> admit(ChannelShard shard, TransactionProposalRequest transactionProposalRequest, Map<String, byte[]> transientProposalData, Trace trace) {
+        if (admissionController == null) {
+            return endorseAndSubmit(shard, transactionProposalRequest, transientProposalData, trace);
+        }
+        long admissionStart = System.nanoTime();
+        AdmissionController.Permit permit = admissionController.acquire(transactionProposalRequest.getFcn());
+        if (trace != null) {
+            trace.span("admission", admissionStart);
+        }
+        CompletableFuture<BlockInfo> commit;
+        try {
+            commit = endorseAndSubmit(shard, transactionProposalRequest, transientProposalData, trace);
+        } catch (RuntimeException e) {
+            permit.release(false);
+            throw e;
+        }
+        if (commit == null) {
+            permit.release(false);
+            return null;
+        }
+        // a commit event that never arrives must not hold the slot forever
+        return commit.orTimeout(admittedCommitWaitTime, TimeUnit.MILLISECONDS)
+                .whenComplete((blockInfo, error) -> permit.release(error == null));
+    }
+
+    private CompletableFuture<BlockInfo> endorseAndSubmit(ChannelShard shard, TransactionProposalRequest transactionProposalRequest, Map<String, byte[]> transientProposalData, Trace trace) {
+        Channel channel = shard.initialized(startupReport);
+
+        List<Peer> endorsers = new ArrayList<>();
+        long timeout = 0;
+        for (Peer peer : shard.peers) {
+            String endpoint = endpointName(peer);
+            if (endpointHealth.allowRequest(endpoint)) {
+                endorsers.add(peer);
+                timeout = Math.max(timeout, endpointHealth.timeoutMillis(endpoint, proposalWaitTime));
+            }
+        }
+        if (endorsers.isEmpty()) {
+            System.out.println(format("Error: no healthy peer to endorse %s", transactionProposalRequest.getFcn()));
+            return null;
+        }
+        transactionProposalRequest.setProposalWaitTime(timeout);
 
         try {
             transactionProposalRequest.setTransientMap(transientProposalData);
-            List<ProposalResponse> transactionPropResp = new ArrayList<>(
-                    channel.sendTransactionProposal(transactionProposalRequest, channel.getPeers())
-            );
+            long start = endpointHealth.now();
+            List<ProposalResponse> transactionPropResp;
+            try {
+                transactionPropResp = new ArrayList<>(proposalPipeline.send(channel, transactionProposalRequest, endorsers, trace));
+            } catch (InvalidArgumentException | ProposalException | RuntimeException e) {
+                endorsers.forEach(peer -> endpointHealth.recordAborted(endpointName(peer)));
+                throw e;
+            }
+            long elapsed = endpointHealth.now() - start;
 
-            ProposalResponse proposalResponse = transactionPropResp.get(0);
+            List<ProposalResponse> successful = new ArrayList<>();
+            for (ProposalResponse response : transactionPropResp) {
+                if (recordEndorsement(response, elapsed) && response.getStatus() == ChaincodeResponse.Status.SUCCESS) {
+                    successful.add(response);
+                }
+            }
 
-            if (proposalResponse.getStatus() != ChaincodeResponse.Status.SUCCESS) {
-                System.out.println("Error: " + proposalResponse.getMessage());
+            if (successful.isEmpty()) {
+                System.out.println("Error: " + transactionPropResp.get(0).getMessage());
                 return null;
             }
+            ProposalResponse proposalResponse = successful.get(0);
 
-            Collection<Set<ProposalResponse>> invokeTRProposalConsistencySets = SDKUtils.getProposalConsistencySets(transactionPropResp);
+            Collection<Set<ProposalResponse>> invokeTRProposalConsistencySets = SDKUtils.getProposalConsistencySets(successful);
 
             if (invokeTRProposalConsistencySets.size() != 1) {
                 throw new RuntimeException(format("Expected only one set of consistent proposal responses but got %d", invokeTRProposalConsistencySets.size()));
             }
-            return sendTransactionToOrderer(channel, proposalResponse, orderers);
+            return sendTransactionToOrderer(channel, proposalResponse, shard.orderers, shard.peers, trace);
 
         } catch (InvalidArgumentException ex) {
             throw new IllegalArgumentException(ex);
@@ -167,6 +583,32 @@ public class FabricClient {
         }
     }
 
+    /**
+     * Freezes the invocation of a chaincode function, so that calls only need to supply their arguments.
+     */
+    public PreparedInvocation<String[]> prepare(ChaincodeID chaincodeID, String function) {
+        return prepare(chaincodeID, function, args -> args);
+    }
+
+    public <A> PreparedInvocation<A> prepare(ChaincodeID chaincodeID, String function, PreparedInvocation.ArgumentEncoder<A> encoder) {
+        return new PreparedInvocation<>(this, chaincodeID, function, null, encoder, null);
+    }
+
+    /**
+     * Freezes the invocation of a chaincode function whose arguments are encoded as bytes.
+     */
+    public <A> PreparedInvocation<A> prepareBinary(ChaincodeID chaincodeID, String function, PreparedInvocation.BinaryArgumentEncoder<A> encoder) {
+        return new PreparedInvocation<>(this, chaincodeID, function, null, null, encoder);
+    }
+
+    private static Map<String, byte[]> invokeTransientData() {
+        Map<String, byte[]> transientProposalData = new HashMap<>();
+        transientProposalData.put("HyperLedgerFabric", "TransactionProposalRequest:JavaSDK".getBytes(UTF_8));
+        transientProposalData.put("method", "TransactionProposalRequest".getBytes(UTF_8));
+        transientProposalData.put("result", ":)".getBytes(UTF_8));
+        return Collections.unmodifiableMap(transientProposalData);
+    }
+
     private Enrollment getEnrollment() {
         return new Enrollment() {
             @Override
@@ -214,67 +656,194 @@ public class FabricClient {
         };
     }
 
-    public List<Peer> initPeers(HFClient hfClient) {
+    public List<Peer> initPeers(HFClient hfClient, SampleOrg org) {
 
-        Properties properties = new Properties();
-        String peerUrl = "grpc://" + HOST + ":7051";
-        String peerName = "peer0.org1.example.com";
+        List<Peer> peers = new CopyOnWriteArrayList<>();
+        for (String peerName : org.getPeerNames()) {
+            Peer peer = newPeer(hfClient, peerName, org.getPeerLocation(peerName));
+            peers.add(peer);
+            org.addPeer(peer);
+        }
+        return peers;
+    }
+
+    private Peer newPeer(HFClient hfClient, String peerName, String peerUrl) {
 
-        List<Peer> peers = new ArrayList<>();
+        Properties properties = new Properties();
         properties.put("grpc.NettyChannelBuilderOption.keepAliveTime", new Object[]{5L, TimeUnit.MINUTES});
         properties.put("grpc.NettyChannelBuilderOption.keepAliveTimeout", new Object[]{8L, TimeUnit.SECONDS});
 //        properties.put("grpc.NettyChannelBuilderOption.maxInboundMessageSize", 9000000);
 
         try {
-            peers.add(hfClient.newPeer(peerName, peerUrl, properties));
+            return hfClient.newPeer(peerName, peerUrl, properties);
         } catch (InvalidArgumentException ex) {
             throw new IllegalArgumentException(ex);
         }
-        return peers;
     }
 
 
-    public List<Orderer> initOrderers(HFClient hfClient) {
+    public List<Orderer> initOrderers(HFClient hfClient, SampleOrg org) {
+
+        List<Orderer> orderers = new CopyOnWriteArrayList<>();
+        for (String ordererName : org.getOrdererNames()) {
+            orderers.add(newOrderer(hfClient, ordererName, org.getOrdererLocation(ordererName)));
+        }
+        return orderers;
+    }
 
-        String ordererUrl = "grpc://" + HOST + ":7050";
+    private Orderer newOrderer(HFClient hfClient, String ordererName, String ordererUrl) {
 
-        List<Orderer> orderers = new ArrayList<>();
         Properties ordererProperties = new Properties();
         ordererProperties.setProperty("trustServerCertificate", "true"); //testing environment only NOT FOR PRODUCTION!
-        ordererProperties.setProperty("hostnameOverride", "orderer.example.com");
+        ordererProperties.setProperty("hostnameOverride", ordererName);
         ordererProperties.put("grpc.NettyChannelBuilderOption.keepAliveTime", new Object[]{5L, TimeUnit.MINUTES});
         ordererProperties.put("grpc.NettyChannelBuilderOption.keepAliveTimeout", new Object[]{8L, TimeUnit.SECONDS});
 
         try {
-            orderers.add(hfClient.newOrderer("orderer.example.com", ordererUrl, ordererProperties));
+            return hfClient.newOrderer(ordererName, ordererUrl, ordererProperties);
         } catch (InvalidArgumentException ex) {
             throw new IllegalArgumentException(ex);
         }
-
-        return orderers;
     }
 
-    public static List<EventHub> initEventHubs(HFClient hfClient) {
+    public static List<EventHub> initEventHubs(HFClient hfClient, SampleOrg org) {
 
         List<EventHub> eventHubs = new ArrayList<>();
-        String evenHubUrl = "grpc://" + HOST + ":7053";
-        String ordererName = "peer0.eventhub.org1.example.com";
+        for (String eventHubName : org.getEventHubNames()) {
+            eventHubs.add(newEventHub(hfClient, eventHubName, org.getEventHubLocation(eventHubName)));
+        }
+        return eventHubs;
+    }
+
+    private static EventHub newEventHub(HFClient hfClient, String eventHubName, String eventHubUrl) {
+
         Properties properties = new Properties();
         properties.put("grpc.NettyChannelBuilderOption.keepAliveTime", new Object[]{5L, TimeUnit.MINUTES});
         properties.put("grpc.NettyChannelBuilderOption.keepAliveTimeout", new Object[]{8L, TimeUnit.SECONDS});
 
         try {
-            eventHubs.add(hfClient.newEventHub(ordererName, evenHubUrl, properties));
+            return hfClient.newEventHub(eventHubName, eventHubUrl, properties);
         } catch (InvalidArgumentException ex) {
             throw new IllegalArgumentException(ex);
         }
+    }
 
-        return eventHubs;
+    /**
+     * Brings the peers and orderers in line with the given topology without rebuilding the channel.
+     *
+     * Endpoints whose location did not change keep their connections. Removed endpoints are detached from the channels
+     * and their connections closed; event hubs added to an initialized channel are connected right away.
+     */
+    public synchronized void applyTopology(SampleOrg topology) {
+
+        for (String peerName : new ArrayList<>(sampleOrg.getPeerNames())) {
+            if (!Objects.equals(sampleOrg.getPeerLocation(peerName), topology.getPeerLocation(peerName))) {
+                removePeer(peerName);
+            }
+        }
+        for (String peerName : topology.getPeerNames()) {
+            if (!Objects.equals(sampleOrg.getPeerLocation(peerName), topology.getPeerLocation(peerName))) {
+                addPeer(peerName, topology.getPeerLocation(peerName));
+            }
+        }
+
+        for (String ordererName : new ArrayList<>(sampleOrg.getOrdererNames())) {
+            if (!Objects.equals(sampleOrg.getOrdererLocation(ordererName), topology.getOrdererLocation(ordererName))) {
+                removeOrderer(ordererName);
+            }
+        }
+        for (String ordererName : topology.getOrdererNames()) {
+            if (!Objects.equals(sampleOrg.getOrdererLocation(ordererName), topology.getOrdererLocation(ordererName))) {
+                addOrderer(ordererName, topology.getOrdererLocation(ordererName));
+            }
+        }
+
+        for (String eventHubName : new ArrayList<>(sampleOrg.getEventHubNames())) {
+            if (!Objects.equals(sampleOrg.getEventHubLocation(eventHubName), topology.getEventHubLocation(eventHubName))) {
+                removeEventHub(eventHubName);
+            }
+        }
+        for (String eventHubName : topology.getEventHubNames()) {
+            if (!Objects.equals(sampleOrg.getEventHubLocation(eventHubName), topology.getEventHubLocation(eventHubName))) {
+                addEventHub(eventHubName, topology.getEventHubLocation(eventHubName));
+            }
+        }
+    }
+
+    public synchronized void addPeer(String peerName, String peerUrl) {
+        for (ChannelShard shard : shards.values()) {
+            Peer peer = newPeer(hfClient, peerName, peerUrl);
+            try {
+                shard.channel.addPeer(peer);
+            } catch (InvalidArgumentException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+            shard.peers.add(peer);
+            if (shard == defaultShard()) {
+                sampleOrg.addPeer(peer);
+            }
+        }
+        sampleOrg.addPeerLocation(peerName, peerUrl);
+        System.out.println("Added peer " + peerName + " at " + peerUrl);
+    }
+
+    /**
+     * Detaches the peer from every channel and closes its connections. Requests that need a peer fail with an
+     * {@link IllegalStateException} on a channel whose last peer was removed.
+     */
+    public synchronized void removePeer(String peerName) {
+        for (ChannelShard shard : shards.values()) {
+            for (Peer peer : shard.removePeer(peerName)) {
+                sampleOrg.removePeer(peer);
+            }
+        }
+        sampleOrg.removePeerLocation(peerName);
+        System.out.println("Removed peer " + peerName);
+    }
+
+    public synchronized void addOrderer(String ordererName, String ordererUrl) {
+        for (ChannelShard shard : shards.values()) {
+            Orderer orderer = newOrderer(hfClient, ordererName, ordererUrl);
+            try {
+                shard.channel.addOrderer(orderer);
+            } catch (InvalidArgumentException ex) {
+                throw new IllegalArgumentException(ex);
+            }
+            shard.orderers.add(orderer);
+        }
+        sampleOrg.addOrdererLocation(ordererName, ordererUrl);
+        System.out.println("Added orderer " + ordererName + " at " + ordererUrl);
+    }
+
+    public synchronized void removeOrderer(String ordererName) {
+        for (ChannelShard shard : shards.values()) {
+            shard.removeOrderer(ordererName);
+        }
+        sampleOrg.removeOrdererLocation(ordererName);
+        System.out.println("Removed orderer " + ordererName);
+    }
+
+    public synchronized void addEventHub(String eventHubName, String eventHubUrl) {
+        for (ChannelShard shard : shards.values()) {
+            shard.addEventHub(newEventHub(hfClient, eventHubName, eventHubUrl), hfClient);
+        }
+        sampleOrg.addEventHubLocation(eventHubName, eventHubUrl);
+        System.out.println("Added event hub " + eventHubName + " at " + eventHubUrl);
+    }
+
+    public synchronized void removeEventHub(String eventHubName) {
+        for (ChannelShard shard : shards.values()) {
+            shard.removeEventHub(eventHubName);
+        }
+        sampleOrg.removeEventHubLocation(eventHubName);
+        System.out.println("Removed event hub " + eventHubName);
     }
 
     public Channel initChannel(HFClient hfClient) {
+        return initChannel(hfClient, DEFAULT_CHANNEL);
+    }
 
-        String channelName = "mychannel";
+    public Channel initChannel(HFClient hfClient, String channelName) {
 
         Channel channel = null;
         try {
@@ -391,7 +960,7 @@ public class FabricClient {
 
             if (proposalResponse.isVerified() && proposalResponse.getStatus() == ProposalResponse.Status.SUCCESS) {
                 try {
-                    return sendTransactionToOrderer(channel, proposalResponse, channel.getOrderers()).get();
+                    return sendTransactionToOrderer(channel, proposalResponse, channel.getOrderers(), new ArrayList<>(channel.getPeers()), null).get();
                 } catch (InterruptedException | ExecutionException e) {
                     e.printStackTrace();
                 }
@@ -405,18 +974,503 @@ public class FabricClient {
         return null;
     }
 
-    private CompletableFuture<BlockInfo> sendTransactionToOrderer(Channel channel, ProposalResponse proposalsResult, Collection<Orderer> orderer) {
+    /**
+     * Broadcasts the transaction and, once it is committed, looks up its block on the first of {@code peers}.
+     *
+     * @param trace records the ordering, commit and block lookup spans, {@code null} if the call is not traced
+     */
+    private CompletableFuture<BlockInfo> sendTransactionToOrderer(Channel channel, ProposalResponse proposalsResult, Collection<Orderer> orderers, List<Peer> peers, Trace trace) {
+
+        long orderStart = System.nanoTime();
+        CompletableFuture<BlockEvent.TransactionEvent> committed = broadcast(channel, Collections.singletonList(proposalsResult), orderers);
+        long commitStart = System.nanoTime();
+        FabricEvents.CommitWaitEvent commitWait = new FabricEvents.CommitWaitEvent();
+        commitWait.begin();
+        committed = committed.whenComplete((transactionEvent, error) -> {
+            commitWait.end();
+            if (commitWait.shouldCommit()) {
+                commitWait.channel = channel.getName();
+                commitWait.transactionId = proposalsResult.getTransactionID();
+                commitWait.valid = transactionEvent != null && transactionEvent.isValid();
+                commitWait.commit();
+            }
+        });
+        if (trace != null) {
+            trace.span("order", orderStart);
+            committed = committed.whenComplete((transactionEvent, error) -> trace.span("commit", commitStart));
+        }
 
-        return channel.sendTransaction(Collections.singletonList(proposalsResult), orderers)
-                .thenApply(transactionEvent -> {
+        return committed
+                .thenApplyAsync(transactionEvent -> {
+                    long lookupStart = System.nanoTime();
                     String transactionId = transactionEvent.getTransactionID();
                     try {
-                        return channel.queryBlockByTransactionID(transactionId);
+                        return blockByTransactionID(channel, ChannelShard.firstPeer(channel, peers), transactionId);
                     } catch (ProposalException | InvalidArgumentException e) {
                         e.printStackTrace();
+                    } finally {
+                        if (trace != null) {
+                            trace.span("block", lookupStart);
+                        }
                     }
 
                     return null;
-                });
+                }, callbackExecutor);
+    }
+
+    /**
+     * The block of a transaction from the channel's block cache, or from {@code peer} if it is not cached yet.
+     */
+    private BlockInfo blockByTransactionID(Channel channel, Peer peer, String transactionId) throws ProposalException, InvalidArgumentException {
+        ChannelShard shard = shards.get(channel.getName());
+        BlockCache blockCache = shard == null ? null : shard.blockCache;
+        if (blockCache == null) {
+            return channel.queryBlockByTransactionID(peer, transactionId);
+        }
+        Optional<BlockInfo> cached = blockCache.blockByTransactionId(transactionId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        BlockInfo blockInfo = channel.queryBlockByTransactionID(peer, transactionId);
+        cache(blockCache, blockInfo);
+        return blockInfo;
+    }
+
+    private static void cache(BlockCache blockCache, BlockInfo blockInfo) {
+        if (blockInfo == null) {
+            return;
+        }
+        try {
+            blockCache.put(blockInfo);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the transaction to the best ranked orderer, failing over to the next one as soon as a broadcast fails.
+     * Once every orderer failed, the whole round is retried after a jittered backoff, up to the selector's maximum number of rounds.
+     * The retries are scheduled on the callback executor, so the caller does not wait out the backoff.
+     * Orderers whose circuit is open are skipped.
+     */
+    private CompletableFuture<BlockEvent.TransactionEvent> broadcast(Channel channel, Collection<ProposalResponse> proposalResponses, Collection<Orderer> orderers) {
+        return broadcast(channel, proposalResponses, orderers, 0, null);
+    }
+
+    private CompletableFuture<BlockEvent.TransactionEvent> broadcast(Channel channel, Collection<ProposalResponse> proposalResponses, Collection<Orderer> orderers,
+                                                                     int round, Throwable previousError) {
+
+        Throwable lastError = previousError;
+        if (round < ordererSelector.getMaxRounds()) {
+            for (Orderer orderer : ordererSelector.rank(orderers)) {
+                String endpoint = endpointName(orderer);
+                if (!endpointHealth.allowRequest(endpoint)) {
+                    continue;
+                }
+                long start = endpointHealth.now();
+                FabricEvents.OrderEvent orderEvent = new FabricEvents.OrderEvent();
+                orderEvent.begin();
+                CompletableFuture<BlockEvent.TransactionEvent> future = channel.sendTransaction(proposalResponses, Collections.singletonList(orderer));
+                orderEvent.end();
+                long elapsed = endpointHealth.now() - start;
+                if (orderEvent.shouldCommit()) {
+                    orderEvent.channel = channel.getName();
+                    orderEvent.transactionId = proposalResponses.iterator().next().getTransactionID();
+                    orderEvent.orderer = endpoint;
+                    orderEvent.success = !future.isCompletedExceptionally();
+                    orderEvent.commit();
+                }
+
+                if (!future.isCompletedExceptionally()) {
+                    ordererSelector.recordSuccess(orderer, elapsed);
+                    endpointHealth.recordSuccess(endpoint, elapsed);
+                    return future;
+                }
+
+                ordererSelector.recordFailure(orderer, elapsed);
+                endpointHealth.recordFailure(endpoint, elapsed);
+                lastError = future.handle((event, error) -> error).join();
+                System.out.println(format("Broadcast to %s failed, %s", ordererSelector.describe(orderer), lastError.getMessage()));
+            }
+        }
+
+        int nextRound = round + 1;
+        if (nextRound < ordererSelector.getMaxRounds()) {
+            Throwable error = lastError;
+            Executor backoff = CompletableFuture.delayedExecutor(ordererSelector.backoffMillis(nextRound), TimeUnit.MILLISECONDS, callbackExecutor);
+            return CompletableFuture.supplyAsync(() -> broadcast(channel, proposalResponses, orderers, nextRound, error), backoff)
+                    .thenCompose(Function.identity());
+        }
+
+        CompletableFuture<BlockEvent.TransactionEvent> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new TransactionException(format("Broadcast failed on all %d orderers", orderers.size()), lastError));
+        return failed;
+    }
+
+    /**
+     * The channel that holds {@code key} according to the shard function.
+     */
+    public String channelFor(String key) {
+        String channelName = shardFunction.channelFor(key, channelNames);
+        if (!shards.containsKey(channelName)) {
+            throw new IllegalStateException(format("Shard function chose unknown channel %s for %s", channelName, key));
+        }
+        return channelName;
+    }
+
+    /**
+     * Invokes on the channel that holds {@code key}.
+     */
+    public CompletableFuture<BlockInfo> invokeSharded(String key, ChaincodeID chaincodeID, String functionName, String[] args) {
+        return invokeOnChannel(channelFor(key), chaincodeID, functionName, args);
+    }
+
+    public CompletableFuture<BlockInfo> invokeOnChannel(String channelName, ChaincodeID chaincodeID, String functionName, String[] args) {
+        TransactionProposalRequest transactionProposalRequest = hfClient.newTransactionProposalRequest();
+        transactionProposalRequest.setChaincodeID(chaincodeID);
+        transactionProposalRequest.setFcn(functionName);
+        transactionProposalRequest.setArgs(args);
+        return invoke(shard(channelName), transactionProposalRequest, INVOKE_TRANSIENT_DATA);
+    }
+
+    /**
+     * Queries the channel that holds {@code key}.
+     */
+    public <T> Optional<T> querySharded(String key, ChaincodeID chaincodeID, String function, String[] args, Function<JsonObject, T> transformer) {
+        return queryOnChannel(channelFor(key), chaincodeID, function, args, transformer);
+    }
+
+    public <T> Optional<T> queryOnChannel(String channelName, ChaincodeID chaincodeID, String function, String[] args, Function<JsonObject, T> transformer) {
+        return query(shard(channelName), newQuery(chaincodeID, function, args), transformer);
+    }
+
+    /**
+     * Queries a channel starting with its {@code peer}-th peer, modulo the number of peers, so that concurrent queries
+     * can be spread over them. The other peers are still tried if that one does not answer.
+     */
+    public <T> Optional<T> queryOnChannel(String channelName, int peer, ChaincodeID chaincodeID, String function, String[] args, Function<JsonObject, T> transformer) {
+        return query(shard(channelName), newQuery(chaincodeID, function, args), peer, transformer);
+    }
+
+    public int getPeerCount(String channelName) {
+        return shard(channelName).peers.size();
+    }
+
+    /**
+     * Runs the same query on every channel in parallel.
+     *
+     * @return the result of each channel by channel name, in configuration order; empty for a channel that failed
+     */
+    public <T> Map<String, Optional<T>> queryShards(ChaincodeID chaincodeID, String function, String[] args, Function<JsonObject, T> transformer) {
+        Map<String, CompletableFuture<Optional<T>>> pending = new LinkedHashMap<>();
+        try (ExecutorService shardExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String channelName : channelNames) {
+                ChannelShard shard = shards.get(channelName);
+                pending.put(channelName, CompletableFuture.supplyAsync(
+                        () -> query(shard, newQuery(chaincodeID, function, args), transformer), shardExecutor));
+            }
+        }
+
+        Map<String, Optional<T>> results = new LinkedHashMap<>();
+        pending.forEach((channelName, result) -> results.put(channelName, result.join()));
+        return results;
+    }
+
+    private QueryByChaincodeRequest newQuery(ChaincodeID chaincodeID, String function, String[] args) {
+        QueryByChaincodeRequest queryByChaincodeRequest = hfClient.newQueryProposalRequest();
+        queryByChaincodeRequest.setArgs(args);
+        queryByChaincodeRequest.setFcn(function);
+        queryByChaincodeRequest.setChaincodeID(chaincodeID);
+        return queryByChaincodeRequest;
+    }
+
+    /**
+     * A new request for another attempt of {@code query}, since the SDK rejects a request that was already submitted.
+     */
+    private QueryByChaincodeRequest newQuery(QueryByChaincodeRequest query) throws InvalidArgumentException {
+        QueryByChaincodeRequest queryByChaincodeRequest = hfClient.newQueryProposalRequest();
+        queryByChaincodeRequest.setChaincodeID(query.getChaincodeID());
+        queryByChaincodeRequest.setFcn(query.getFcn());
+        if (query.getArgs() != null) {
+            queryByChaincodeRequest.setArgs(query.getArgs());
+        }
+        if (query.getArgBytes() != null) {
+            queryByChaincodeRequest.setArgBytes(query.getArgBytes());
+        }
+        if (query.getTransientMap() != null) {
+            queryByChaincodeRequest.setTransientMap(query.getTransientMap());
+        }
+        return queryByChaincodeRequest;
+    }
+
+    public List<String> getChannelNames() {
+        return Collections.unmodifiableList(channelNames);
+    }
+
+    /**
+     * How keys are spread over the channels, {@link ShardFunction#hashing()} by default.
+     */
+    public void setShardFunction(ShardFunction shardFunction) {
+        this.shardFunction = Objects.requireNonNull(shardFunction);
+    }
+
+    /**
+     * Installs and instantiates chaincodes on the channel, created on first use.
+     */
+    public synchronized ChaincodeDeployer chaincodeDeployer() {
+        if (chaincodeDeployer == null) {
+            chaincodeDeployer = new ChaincodeDeployer(this, Executors.newVirtualThreadPerTaskExecutor());
+        }
+        return chaincodeDeployer;
+    }
+
+    /**
+     * Publisher of the transactions committed on the default channel. The block listener is registered on first use.
+     */
+    public synchronized CommitPublisher commitEvents() {
+        if (commitPublisher == null) {
+            CommitPublisher publisher = new CommitPublisher(callbackExecutor, Flow.defaultBufferSize());
+            try {
+                initializedChannel().registerBlockListener(publisher);
+            } catch (InvalidArgumentException e) {
+                throw new IllegalArgumentException(e);
+            }
+            commitPublisher = publisher;
+        }
+        return commitPublisher;
+    }
+
+    /**
+     * Filtered block events of all channels: commits of single transactions and chaincode events by chaincode and
+     * event name. The block listeners are registered on first use.
+     */
+    public synchronized BlockEventPipeline blockEvents() {
+        if (blockEventPipeline == null) {
+            BlockEventPipeline pipeline = new BlockEventPipeline(ForkJoinPool.commonPool(), callbackExecutor);
+            try {
+                for (String channelName : channelNames) {
+                    shard(channelName).initialized(startupReport).registerBlockListener(pipeline);
+                }
+            } catch (InvalidArgumentException e) {
+                throw new IllegalArgumentException(e);
+            }
+            blockEventPipeline = pipeline;
+        }
+        return blockEventPipeline;
+    }
+
+    /**
+     * Keeps the committed blocks of every channel in {@code directory}, one subdirectory per channel, at most about
+     * {@code retentionBytes} per channel. The caches fill themselves from the block events and from blocks fetched
+     * from the peers, and serve block lookups without network traffic.
+     */
+    public void enableBlockCache(Path directory, long retentionBytes) throws IOException {
+        for (String channelName : channelNames) {
+            ChannelShard shard = shard(channelName);
+            if (shard.blockCache != null) {
+                continue;
+            }
+            BlockCache blockCache = BlockCache.open(directory.resolve(channelName), retentionBytes);
+            try {
+                shard.initialized(startupReport).registerBlockListener(blockCache);
+            } catch (InvalidArgumentException e) {
+                blockCache.close();
+                throw new IllegalArgumentException(e);
+            }
+            shard.blockCache = blockCache;
+        }
+    }
+
+    /**
+     * A block of the channel, from its block cache if enabled, otherwise or on a miss from the first peer.
+     */
+    public Optional<BlockInfo> queryBlock(String channelName, long blockNumber) {
+        ChannelShard shard = shard(channelName);
+        BlockCache blockCache = shard.blockCache;
+        if (blockCache != null) {
+            Optional<BlockInfo> cached = blockCache.block(blockNumber);
+            if (cached.isPresent()) {
+                return cached;
+            }
+        }
+        try {
+            BlockInfo blockInfo = shard.initialized(startupReport).queryBlockByNumber(shard.firstPeer(), blockNumber);
+            if (blockCache != null) {
+                cache(blockCache, blockInfo);
+            }
+            return Optional.ofNullable(blockInfo);
+        } catch (InvalidArgumentException | ProposalException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * The block holding a transaction, from the block cache if enabled, otherwise or on a miss from the first peer.
+     */
+    public Optional<BlockInfo> queryBlockByTransactionID(String channelName, String transactionId) {
+        ChannelShard shard = shard(channelName);
+        try {
+            return Optional.ofNullable(blockByTransactionID(shard.initialized(startupReport), shard.firstPeer(), transactionId));
+        } catch (InvalidArgumentException | ProposalException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Sampling of queries and invocations for tracing, by default the {@link Tracer#SAMPLE_PROPERTY} system property.
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = Objects.requireNonNull(tracer);
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Appends the finished traces to {@code file}, one timeline per line, with the spans the chaincode recorded for
+     * them. Chaincode spans are collected with the {@value Tracer#TRACES_FUNCTION} query from every peer of the
+     * channel, since each endorser keeps its own, and carry the name of their peer. One query per peer asks for up to
+     * {@value #TRACES_PER_QUERY} traces of a chaincode. A call that never got a transaction id did not reach a peer and
+     * has no chaincode spans.
+     *
+     * @return the number of traces written
+     */
+    public int exportTraces(Path file) throws IOException {
+        return tracer.export(file, this::chaincodeSpans);
+    }
+
+    /**
+     * The spans kept under the trace ids, or under the transaction ids by chaincodes on shims that cannot read the trace
+     * context, on each peer of the traces' channels, matched to their trace by transaction id. Peers that do not answer
+     * are left out.
+     */
+    private Map<Trace, JsonArray> chaincodeSpans(List<Trace> traces) {
+        Map<String, Map<String, Trace>> tracesByChaincode = new LinkedHashMap<>();
+        for (Trace trace : traces) {
+            if (trace.getTransactionId() != null) {
+                tracesByChaincode.computeIfAbsent(trace.getChannel() + "/" + trace.getChaincode(), key -> new LinkedHashMap<>())
+                        .put(trace.getTransactionId(), trace);
+            }
+        }
+
+        Map<Trace, JsonArrayBuilder> spans = new HashMap<>();
+        for (Map<String, Trace> byTransaction : tracesByChaincode.values()) {
+            List<Trace> chaincodeTraces = new ArrayList<>(byTransaction.values());
+            for (int from = 0; from < chaincodeTraces.size(); from += TRACES_PER_QUERY) {
+                List<Trace> batch = chaincodeTraces.subList(from, Math.min(from + TRACES_PER_QUERY, chaincodeTraces.size()));
+                collectSpans(batch, byTransaction, spans);
+            }
+        }
+
+        Map<Trace, JsonArray> result = new HashMap<>();
+        spans.forEach((trace, builder) -> result.put(trace, builder.build()));
+        return result;
+    }
+
+    /**
+     * Asks every peer of the channel of a batch of traces, all of the same chaincode, for their spans with one query.
+     */
+    private void collectSpans(List<Trace> batch, Map<String, Trace> byTransaction, Map<Trace, JsonArrayBuilder> spans) {
+        Trace first = batch.get(0);
+        List<String> keys = new ArrayList<>(batch.size() * 2);
+        for (Trace trace : batch) {
+            keys.add(trace.getTraceId());
+            keys.add(trace.getTransactionId());
+        }
+        try {
+            ChannelShard shard = shard(first.getChannel());
+            Channel channel = shard.initialized(startupReport);
+            QueryByChaincodeRequest request = hfClient.newQueryProposalRequest();
+            request.setArgs(keys.toArray(new String[0]));
+            request.setFcn(Tracer.TRACES_FUNCTION);
+            request.setChaincodeID(ChaincodeID.newBuilder().setName(first.getChaincode()).build());
+
+            for (Peer peer : new ArrayList<>(shard.peers)) {
+                QueryByChaincodeRequest attempt = newQuery(request);
+                attempt.setProposalWaitTime(proposalWaitTime);
+                ProposalResponse response = proposalPipeline.send(channel, attempt, Collections.singletonList(peer), null).iterator().next();
+                if (response.getProposalResponse() == null || response.getStatus() != ChaincodeResponse.Status.SUCCESS) {
+                    System.out.println(format("Could not collect the chaincode spans of %d traces from %s, %s",
+                            batch.size(), peer.getName(), response.getMessage()));
+                    continue;
+                }
+                byte[] payload = decodePayload(response.getProposalResponse().getResponse());
+                try (JsonReader reader = Json.createReader(new ByteArrayInputStream(payload))) {
+                    for (JsonValue value : reader.readArray()) {
+                        JsonObject span = (JsonObject) value;
+                        Trace trace = byTransaction.get(span.getString("txId", ""));
+                        if (trace != null) {
+                            spans.computeIfAbsent(trace, key -> Json.createArrayBuilder())
+                                    .add(Json.createObjectBuilder(span).add("peer", peer.getName()));
+                        }
+                    }
+                }
+            }
+        } catch (InvalidArgumentException | ProposalException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Streams the records of a paginated query, fetching {@code pageSize} records at a time as the subscriber requests them.
+     *
+     * @see QueryResultPublisher
+     */
+    public Flow.Publisher<JsonObject> queryPages(ChaincodeID chaincodeID, String function, String[] args, int pageSize) {
+        return new QueryResultPublisher(this, chaincodeID, function, args, pageSize, callbackExecutor);
+    }
+
+    /**
+     * Executor running the block lookup once a transaction is committed, the delivery of commit notifications and
+     * chaincode events, and the queries of {@link #queryPages}. Defaults to a virtual thread per task, since the block
+     * lookup blocks on a peer query.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = Objects.requireNonNull(callbackExecutor);
+    }
+
+    /**
+     * Rate and concurrency limits applied to every query and invoke, or {@code null} for none, the default.
+     */
+    public void setAdmissionController(AdmissionController admissionController) {
+        this.admissionController = admissionController;
+    }
+
+    /**
+     * Maximum time in milliseconds an admitted transaction waits for its commit, two minutes by default. After that its
+     * future completes with a {@link java.util.concurrent.TimeoutException} and its admission slot is released as failed.
+     */
+    public void setAdmittedCommitWaitTime(long admittedCommitWaitTime) {
+        this.admittedCommitWaitTime = admittedCommitWaitTime;
+    }
+
+    /**
+     * Health tracking of the peers and orderers, for instance one with a simulated clock.
+     */
+    public void setEndpointHealth(EndpointHealth endpointHealth) {
+        this.endpointHealth = Objects.requireNonNull(endpointHealth);
+    }
+
+    public EndpointHealth getEndpointHealth() {
+        return endpointHealth;
+    }
+
+    /**
+     * Maximum time in milliseconds to wait for the peers to answer a proposal. Peers with enough recent calls get a
+     * shorter, adaptive timeout from {@link EndpointHealth}.
+     */
+    public void setProposalWaitTime(long proposalWaitTime) {
+        this.proposalWaitTime = proposalWaitTime;
+    }
+
+    /**
+     * Whether queries ask for gzipped payloads, the default. Only chaincodes built on {@code InstrumentedChaincode}
+     * understand the function suffix this adds, so turn it off to query any other chaincode.
+     */
+    public void setAcceptCompressedQueries(boolean acceptCompressedQueries) {
+        this.acceptCompressedQueries = acceptCompressedQueries;
     }
 }
@@ -0,0 +1,104 @@
+package com.samapartners.workshop.client;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events of the client's calls to the network.
+ *
+ * Callers create an event, {@code begin()} and {@code end()} it around the operation and fill in and commit it only if
+ * {@code shouldCommit()}, so with the events disabled only the allocation remains, which the JIT usually removes.
+ */
+public final class FabricEvents {
+
+    private FabricEvents() {
+    }
+
+    @Name("com.samapartners.workshop.Proposal")
+    @Label("Proposal")
+    @Description("Signing, endorsement and verification of a proposal")
+    @Category({"Workshop", "Fabric"})
+    @StackTrace(false)
+    public static final class ProposalEvent extends Event {
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Function")
+        String function;
+
+        @Label("Transaction Id")
+        String transactionId;
+
+        @Label("Peers")
+        int peers;
+
+        @Label("Endorsed")
+        @Description("Peers that answered with a success")
+        int endorsed;
+    }
+
+    @Name("com.samapartners.workshop.Order")
+    @Label("Order")
+    @Description("Broadcast of a transaction to one orderer")
+    @Category({"Workshop", "Fabric"})
+    @StackTrace(false)
+    public static final class OrderEvent extends Event {
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Transaction Id")
+        String transactionId;
+
+        @Label("Orderer")
+        String orderer;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("com.samapartners.workshop.CommitWait")
+    @Label("Commit Wait")
+    @Description("Time from the broadcast until the event hub reported the transaction committed")
+    @Category({"Workshop", "Fabric"})
+    @StackTrace(false)
+    public static final class CommitWaitEvent extends Event {
+
+        @Label("Channel")
+        String channel;
+
+        @Label("Transaction Id")
+        String transactionId;
+
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("com.samapartners.workshop.QueryDecode")
+    @Label("Query Decode")
+    @Description("Decoding of a query payload, including its decompression")
+    @Category({"Workshop", "Fabric"})
+    @StackTrace(false)
+    public static final class QueryDecodeEvent extends Event {
+
+        @Label("Function")
+        String function;
+
+        @Label("Compressed")
+        boolean compressed;
+
+        @Label("Received Size")
+        @DataAmount
+        long receivedBytes;
+
+        @Label("Decoded Size")
+        @DataAmount
+        long decodedBytes;
+    }
+}
@@ -0,0 +1,161 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Orders transactions that touch the same keys so they do not invalidate each other with MVCC read conflicts.
+ *
+ * Every declared key is hashed onto one of a fixed number of lanes. A transaction starts once the previous transaction
+ * of each of its lanes has committed or failed, and transactions on different lanes run in parallel.
+ * Hash collisions only cost some parallelism, never correctness.
+ */
+public class KeyLaneScheduler {
+
+    private final FabricClient fabricClient;
+    private final Executor executor;
+    private final CompletableFuture<?>[] tails;
+    private final Map<String, Integer> inFlightKeys = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong serialized = new AtomicLong();
+    private final AtomicLong avoidedConflicts = new AtomicLong();
+
+    public KeyLaneScheduler(FabricClient fabricClient, int lanes, Executor executor) {
+        this.fabricClient = fabricClient;
+        this.executor = executor;
+        this.tails = new CompletableFuture<?>[lanes];
+    }
+
+    /**
+     * Invokes a chaincode function once no other scheduled transaction on the same keys is in flight.
+     *
+     * @param keys every ledger key the function reads or writes
+     * @return completes with the commit block, or with {@code null} if the endorsement was rejected
+     */
+    public CompletableFuture<BlockInfo> invoke(Collection<String> keys, ChaincodeID chaincodeID, String function, String[] args) {
+        return submit(keys, () -> fabricClient.invoke(chaincodeID, function, args));
+    }
+
+    public <T> CompletableFuture<T> submit(Collection<String> keys, Supplier<CompletableFuture<T>> transaction) {
+        Set<String> uniqueKeys = new LinkedHashSet<>(keys);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<Void> done = result.handle((value, error) -> null);
+        List<CompletableFuture<?>> predecessors = new ArrayList<>();
+
+        lock.lock();
+        try {
+            boolean conflicting = false;
+            for (String key : uniqueKeys) {
+                conflicting |= inFlightKeys.merge(key, 1, Integer::sum) > 1;
+            }
+            if (conflicting) {
+                avoidedConflicts.incrementAndGet();
+            }
+
+            for (int lane : lanes(uniqueKeys)) {
+                CompletableFuture<?> tail = tails[lane];
+                if (tail != null && !tail.isDone()) {
+                    predecessors.add(tail);
+                }
+                tails[lane] = done;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        submitted.incrementAndGet();
+        done.whenComplete((ignored, error) -> release(uniqueKeys));
+
+        if (predecessors.isEmpty()) {
+            executor.execute(() -> run(transaction, result));
+        } else {
+            serialized.incrementAndGet();
+            CompletableFuture.allOf(predecessors.toArray(new CompletableFuture<?>[0]))
+                    .whenCompleteAsync((ignored, error) -> run(transaction, result), executor);
+        }
+        return result;
+    }
+
+    private static <T> void run(Supplier<CompletableFuture<T>> transaction, CompletableFuture<T> result) {
+        try {
+            CompletableFuture<T> future = transaction.get();
+            if (future == null) {
+                result.complete(null);
+                return;
+            }
+            future.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    private Set<Integer> lanes(Set<String> keys) {
+        Set<Integer> lanes = new LinkedHashSet<>();
+        for (String key : keys) {
+            int hash = key.hashCode();
+            lanes.add(Math.floorMod(hash ^ (hash >>> 16), tails.length));
+        }
+        return lanes;
+    }
+
+    private void release(Set<String> keys) {
+        lock.lock();
+        try {
+            for (String key : keys) {
+                inFlightKeys.computeIfPresent(key, (k, count) -> count == 1 ? null : count - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Transactions that had to wait for another one on the same lane, including waits caused by hash collisions.
+     */
+    public long getSerialized() {
+        return serialized.get();
+    }
+
+    /**
+     * Transactions that shared at least one key with a transaction still in flight, each of which would otherwise have
+     * raced it into an MVCC read conflict.
+     */
+    public long getAvoidedConflicts() {
+        return avoidedConflicts.get();
+    }
+
+    @Override
+    public String toString() {
+        return "KeyLaneScheduler{" +
+                "lanes=" + tails.length +
+                ", submitted=" + submitted +
+                ", serialized=" + serialized +
+                ", avoidedConflicts=" + avoidedConflicts +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package com.samapartners.workshop.client;
+
+import com.samapartners.workshop.sample.SampleOrg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static java.lang.String.format;
+
+/**
+ * Reads the network topology of an organization from a properties file.
+ *
+ * <pre>
+ * org.name=org1
+ * org.mspid=Org1MSP
+ * org.domain=org1.example.com
+ * peer.peer0.org1.example.com=grpc://10.75.40.65:7051
+ * orderer.orderer.example.com=grpc://10.75.40.65:7050
+ * eventhub.peer0.eventhub.org1.example.com=grpc://10.75.40.65:7053
+ * </pre>
+ */
+public class NetworkTopology {
+
+    public static final String TOPOLOGY_FILE_PROPERTY = "workshop.topology";
+
+    private static final String PEER_PREFIX = "peer.";
+    private static final String ORDERER_PREFIX = "orderer.";
+    private static final String EVENT_HUB_PREFIX = "eventhub.";
+
+    private NetworkTopology() {
+    }
+
+    public static SampleOrg load(File file) {
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            properties.load(input);
+        } catch (IOException e) {
+            throw new RuntimeException(format("Could not read topology from \"%s\"", file), e);
+        }
+        return fromProperties(properties);
+    }
+
+    public static SampleOrg fromProperties(Properties properties) {
+        String name = properties.getProperty("org.name");
+        String mspId = properties.getProperty("org.mspid");
+        if (name == null || mspId == null) {
+            throw new IllegalArgumentException("Topology needs org.name and org.mspid");
+        }
+
+        SampleOrg org = new SampleOrg(name, mspId);
+        org.setDomainName(properties.getProperty("org.domain"));
+
+        for (String key : properties.stringPropertyNames()) {
+            String location = properties.getProperty(key).trim();
+            if (key.startsWith(PEER_PREFIX)) {
+                org.addPeerLocation(key.substring(PEER_PREFIX.length()), location);
+            } else if (key.startsWith(ORDERER_PREFIX)) {
+                org.addOrdererLocation(key.substring(ORDERER_PREFIX.length()), location);
+            } else if (key.startsWith(EVENT_HUB_PREFIX)) {
+                org.addEventHubLocation(key.substring(EVENT_HUB_PREFIX.length()), location);
+            }
+        }
+
+        if (org.getPeerNames().isEmpty() || org.getOrdererNames().isEmpty()) {
+            throw new IllegalArgumentException(format("Topology of %s needs at least one peer and one orderer", name));
+        }
+        return org;
+    }
+
+    /**
+     * The single host network the client has been talking to so far.
+     */
+    public static SampleOrg defaultOrg(String host) {
+        SampleOrg org = new SampleOrg("org1", "Org1MSP");
+        org.setDomainName("org1.example.com");
+        org.addPeerLocation("peer0.org1.example.com", "grpc://" + host + ":7051");
+        org.addOrdererLocation("orderer.example.com", "grpc://" + host + ":7050");
+        org.addEventHubLocation("peer0.eventhub.org1.example.com", "grpc://" + host + ":7053");
+        return org;
+    }
+
+    /**
+     * Loads the file named by the {@value #TOPOLOGY_FILE_PROPERTY} system property, or the default network if it is not set.
+     */
+    public static SampleOrg fromSystemProperty(String defaultHost) {
+        String file = System.getProperty(TOPOLOGY_FILE_PROPERTY);
+        return file == null ? defaultOrg(defaultHost) : load(new File(file));
+    }
+}
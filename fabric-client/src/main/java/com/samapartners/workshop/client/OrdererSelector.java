@@ -0,0 +1,103 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.Orderer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranks orderers by their recent broadcast latency and error rate.
+ *
+ * Both are exponentially weighted moving averages, so an orderer that recovers moves back up after a few successful
+ * submits. Orderers whose error rate is above {@code unhealthyErrorRate} are only tried after all healthy ones.
+ */
+public class OrdererSelector {
+
+    private static final double ALPHA = 0.2;
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final double unhealthyErrorRate;
+    private final int maxRounds;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    public OrdererSelector(double unhealthyErrorRate, int maxRounds, long baseBackoffMillis, long maxBackoffMillis) {
+        this.unhealthyErrorRate = unhealthyErrorRate;
+        this.maxRounds = maxRounds;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public static OrdererSelector defaults() {
+        return new OrdererSelector(0.5, 3, 50, 2_000);
+    }
+
+    /**
+     * Orderers in the order they should be tried: healthy ones by latency, then unhealthy ones by error rate.
+     */
+    public List<Orderer> rank(Collection<Orderer> orderers) {
+        List<Orderer> ranked = new ArrayList<>(orderers);
+        ranked.sort(Comparator
+                .comparing((Orderer orderer) -> !isHealthy(orderer))
+                .thenComparingDouble(orderer -> isHealthy(orderer) ? stats(orderer).latencyNanos : stats(orderer).errorRate));
+        return ranked;
+    }
+
+    public boolean isHealthy(Orderer orderer) {
+        return stats(orderer).errorRate <= unhealthyErrorRate;
+    }
+
+    public void recordSuccess(Orderer orderer, long latencyNanos) {
+        stats(orderer).record(latencyNanos, 0);
+    }
+
+    public void recordFailure(Orderer orderer, long latencyNanos) {
+        stats(orderer).record(latencyNanos, 1);
+    }
+
+    public int getMaxRounds() {
+        return maxRounds;
+    }
+
+    /**
+     * The delay before the given retry round, using exponential backoff with full jitter.
+     */
+    public long backoffMillis(int round) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(round, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private Stats stats(Orderer orderer) {
+        return stats.computeIfAbsent(orderer.getName() + "@" + orderer.getUrl(), name -> new Stats());
+    }
+
+    public String describe(Orderer orderer) {
+        Stats orderStats = stats(orderer);
+        return String.format("%s: latency=%dms, errorRate=%.2f", orderer.getName(),
+                TimeUnit.NANOSECONDS.toMillis((long) orderStats.latencyNanos), orderStats.errorRate);
+    }
+
+    private static final class Stats {
+
+        private volatile double latencyNanos;
+        private volatile double errorRate;
+        private boolean sampled;
+
+        synchronized void record(long latency, int error) {
+            if (!sampled) {
+                latencyNanos = latency;
+                errorRate = error;
+                sampled = true;
+                return;
+            }
+            latencyNanos += ALPHA * (latency - latencyNanos);
+            errorRate += ALPHA * (error - errorRate);
+        }
+    }
+}
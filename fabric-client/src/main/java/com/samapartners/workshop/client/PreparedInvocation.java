@@ -0,0 +1,111 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.BlockInfo;
+import org.hyperledger.fabric.sdk.ChaincodeID;
+import org.hyperledger.fabric.sdk.QueryByChaincodeRequest;
+import org.hyperledger.fabric.sdk.TransactionProposalRequest;
+import org.hyperledger.fabric.sdk.TransactionRequest;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+
+import javax.json.JsonObject;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * A chaincode function call with everything but its arguments fixed up front.
+ *
+ * The chaincode id, function name and transient data are built once and shared by all calls; a call only encodes
+ * its arguments, as strings or as bytes passed to the chaincode as they are, and binds them to a fresh SDK request,
+ * which cannot be reused because the SDK marks it as submitted. Unless transient data is set with
+ * {@link #withTransientData}, invokes and queries send the client's defaults. Instances are immutable and can be shared
+ * between threads.
+ *
+ * @param <A> the arguments accepted by {@link #invoke(Object)} and {@link #query(Object, Function)}
+ */
+public final class PreparedInvocation<A> {
+
+    /**
+     * Turns typed arguments into the chaincode arguments.
+     */
+    @FunctionalInterface
+    public interface ArgumentEncoder<A> {
+        String[] encode(A arguments);
+    }
+
+    /**
+     * Turns typed arguments into binary chaincode arguments.
+     */
+    @FunctionalInterface
+    public interface BinaryArgumentEncoder<A> {
+        byte[][] encode(A arguments);
+    }
+
+    private final FabricClient fabricClient;
+    private final ChaincodeID chaincodeID;
+    private final String function;
+    private final Map<String, byte[]> transientData;
+    private final ArgumentEncoder<A> encoder;
+    private final BinaryArgumentEncoder<A> binaryEncoder;
+
+    /**
+     * @param transientData the transient data of every call, {@code null} for the client's defaults
+     * @param encoder the encoder of string arguments, {@code null} if {@code binaryEncoder} is given
+     */
+    PreparedInvocation(FabricClient fabricClient, ChaincodeID chaincodeID, String function, Map<String, byte[]> transientData,
+                       ArgumentEncoder<A> encoder, BinaryArgumentEncoder<A> binaryEncoder) {
+        this.fabricClient = fabricClient;
+        this.chaincodeID = chaincodeID;
+        this.function = function;
+        this.transientData = transientData == null ? null : Collections.unmodifiableMap(new HashMap<>(transientData));
+        this.encoder = encoder;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    public CompletableFuture<BlockInfo> invoke(A arguments) {
+        TransactionProposalRequest request = fabricClient.hfClient.newTransactionProposalRequest();
+        bind(request, arguments);
+        return fabricClient.invoke(request, transientData == null ? FabricClient.INVOKE_TRANSIENT_DATA : transientData);
+    }
+
+    public <T> Optional<T> query(A arguments, Function<JsonObject, T> transformer) {
+        QueryByChaincodeRequest request = fabricClient.hfClient.newQueryProposalRequest();
+        bind(request, arguments);
+        if (transientData != null) {
+            try {
+                request.setTransientMap(transientData);
+            } catch (InvalidArgumentException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+        return fabricClient.query(request, transformer);
+    }
+
+    private void bind(TransactionRequest request, A arguments) {
+        request.setChaincodeID(chaincodeID);
+        request.setFcn(function);
+        if (binaryEncoder != null) {
+            request.setArgBytes(binaryEncoder.encode(arguments));
+        } else {
+            request.setArgs(encoder.encode(arguments));
+        }
+    }
+
+    /**
+     * The same invocation with different transient data, sent with invokes and queries alike.
+     */
+    public PreparedInvocation<A> withTransientData(Map<String, byte[]> transientData) {
+        return new PreparedInvocation<>(fabricClient, chaincodeID, function, transientData, encoder, binaryEncoder);
+    }
+
+    public ChaincodeID getChaincodeID() {
+        return chaincodeID;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+}
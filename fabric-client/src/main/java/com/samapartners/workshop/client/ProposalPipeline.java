@@ -0,0 +1,211 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.Channel;
+import org.hyperledger.fabric.sdk.HFClient;
+import org.hyperledger.fabric.sdk.Peer;
+import org.hyperledger.fabric.sdk.ProposalResponse;
+import org.hyperledger.fabric.sdk.ProposalStages;
+import org.hyperledger.fabric.sdk.TransactionRequest;
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.security.CryptoPrimitives;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Sends proposals in three stages: signing on a pool with one thread per core, the network round trip on the I/O
+ * executor, and verifying the endorsements back on the signing pool, one task per response.
+ *
+ * Each signing thread has its own crypto suite, so no signer state is shared between threads. While one proposal
+ * waits for its endorsements the signing threads are free for the next ones, so under load the CPU bound and the
+ * network bound parts of many proposals overlap instead of running one after the other on the caller's thread.
+ * The endorsements of a proposal sent to several peers are verified in parallel with the client's crypto suite.
+ * Every proposal is reported as a {@link FabricEvents.ProposalEvent} to the flight recorder. The peer latencies carried
+ * by the responses are measured with the pipeline's clock.
+ */
+public class ProposalPipeline implements AutoCloseable {
+
+    private final HFClient hfClient;
+    private final ExecutorService signers;
+    private final Executor io;
+    private final LongSupplier nanoClock;
+    private final ThreadLocal<CryptoSuite> cryptoSuites = ThreadLocal.withInitial(ProposalPipeline::newCryptoSuite);
+
+    private final AtomicLong signed = new AtomicLong();
+    private final AtomicLong signNanos = new AtomicLong();
+
+    public ProposalPipeline(HFClient hfClient, int signingThreads, Executor io) {
+        this(hfClient, signingThreads, io, System::nanoTime);
+    }
+
+    public ProposalPipeline(HFClient hfClient, int signingThreads, Executor io, LongSupplier nanoClock) {
+        this.hfClient = hfClient;
+        this.io = io;
+        this.nanoClock = nanoClock;
+        AtomicInteger threads = new AtomicInteger();
+        this.signers = Executors.newFixedThreadPool(signingThreads, task -> {
+            Thread thread = new Thread(task, "proposal-signer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ProposalPipeline defaults(HFClient hfClient) {
+        return defaults(hfClient, System::nanoTime);
+    }
+
+    public static ProposalPipeline defaults(HFClient hfClient, LongSupplier nanoClock) {
+        return new ProposalPipeline(hfClient, Runtime.getRuntime().availableProcessors(), Executors.newVirtualThreadPerTaskExecutor(), nanoClock);
+    }
+
+    private static CryptoSuite newCryptoSuite() {
+        try {
+            CryptoPrimitives cryptoSuite = new CryptoPrimitives();
+            cryptoSuite.init();
+            return cryptoSuite;
+        } catch (CryptoException | InvalidArgumentException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Signs the request's proposal and sends it to the peers.
+     *
+     * @return completes with one response per peer, or exceptionally with a {@link CompletionException} holding the
+     * {@link ProposalException} or {@link InvalidArgumentException} of the SDK
+     */
+    public CompletableFuture<Collection<ProposalResponse>> endorse(Channel channel, TransactionRequest request, Collection<Peer> peers) {
+        return endorse(channel, request, peers, null);
+    }
+
+    /**
+     * @param trace records the signing, endorsement and verification spans, {@code null} if the call is not traced;
+     *              the function of a traced request gets {@value Tracer#TRACE_SUFFIX} for the chaincode to record its span
+     */
+    CompletableFuture<Collection<ProposalResponse>> endorse(Channel channel, TransactionRequest request, Collection<Peer> peers, Trace trace) {
+        Collection<Peer> targets = new ArrayList<>(peers);
+        String function = request.getFcn();
+        if (trace != null) {
+            request.setFcn(function + Tracer.TRACE_SUFFIX);
+        }
+        FabricEvents.ProposalEvent event = new FabricEvents.ProposalEvent();
+        event.begin();
+        return CompletableFuture
+                .supplyAsync(() -> sign(channel, request, targets, trace), signers)
+                .thenComposeAsync(signedRequest -> {
+                    long start = System.nanoTime();
+                    try {
+                        Collection<ProposalResponse> responses = ProposalStages.send(signedRequest, targets, nanoClock);
+                        if (trace != null) {
+                            trace.setTransactionId(signedRequest.getTransactionID());
+                            trace.span("endorse", start);
+                        }
+                        return signedRequest.doVerify() ? verify(responses, trace) : CompletableFuture.completedFuture(responses);
+                    } catch (ProposalException e) {
+                        throw new CompletionException(e);
+                    }
+                }, io)
+                .whenComplete((responses, error) -> {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.channel = channel.getName();
+                        event.function = function;
+                        event.peers = targets.size();
+                        if (responses != null) {
+                            for (ProposalResponse response : responses) {
+                                event.transactionId = response.getTransactionID();
+                                if (response.getStatus() == ProposalResponse.Status.SUCCESS) {
+                                    event.endorsed++;
+                                }
+                            }
+                        }
+                        event.commit();
+                    }
+                });
+    }
+
+    private CompletableFuture<Collection<ProposalResponse>> verify(Collection<ProposalResponse> responses, Trace trace) {
+        CryptoSuite verifier = hfClient.getCryptoSuite();
+        long start = System.nanoTime();
+        if (responses.size() == 1) {
+            ProposalStages.verify(responses.iterator().next(), verifier);
+            if (trace != null) {
+                trace.span("verify", start);
+            }
+            return CompletableFuture.completedFuture(responses);
+        }
+        CompletableFuture<?>[] verified = responses.stream()
+                .map(response -> CompletableFuture.runAsync(() -> ProposalStages.verify(response, verifier), signers))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(verified).thenApply(done -> {
+            if (trace != null) {
+                trace.span("verify", start);
+            }
+            return responses;
+        });
+    }
+
+    /**
+     * Blocking form of {@link #endorse(Channel, TransactionRequest, Collection)} with the exceptions of the SDK.
+     */
+    public Collection<ProposalResponse> send(Channel channel, TransactionRequest request, Collection<Peer> peers) throws InvalidArgumentException, ProposalException {
+        return send(channel, request, peers, null);
+    }
+
+    Collection<ProposalResponse> send(Channel channel, TransactionRequest request, Collection<Peer> peers, Trace trace) throws InvalidArgumentException, ProposalException {
+        try {
+            return endorse(channel, request, peers, trace).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ProposalException) {
+                throw (ProposalException) cause;
+            }
+            if (cause instanceof InvalidArgumentException) {
+                throw (InvalidArgumentException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new ProposalException(cause);
+        }
+    }
+
+    private ProposalStages.SignedRequest sign(Channel channel, TransactionRequest request, Collection<Peer> peers, Trace trace) {
+        long start = System.nanoTime();
+        try {
+            return ProposalStages.sign(channel, hfClient, cryptoSuites.get(), request, peers);
+        } catch (InvalidArgumentException | ProposalException e) {
+            throw new CompletionException(e);
+        } finally {
+            signNanos.addAndGet(System.nanoTime() - start);
+            signed.incrementAndGet();
+            if (trace != null) {
+                trace.span("sign", start);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        long count = signed.get();
+        return String.format("Proposal pipeline: signed=%d, avgSign=%dus; %s", count,
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(signNanos.get() / count), hfClient.getCryptoSuite());
+    }
+
+    @Override
+    public void close() {
+        signers.shutdown();
+    }
+}
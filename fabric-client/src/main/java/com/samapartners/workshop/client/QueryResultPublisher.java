@@ -0,0 +1,144 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.lang.String.format;
+
+/**
+ * Streams the records of a paginated chaincode query.
+ *
+ * The chaincode function is called with the given arguments followed by a bookmark and a page size, and answers with
+ * {@code {"records": [...], "bookmark": "..."}}; an empty bookmark marks the last page. A page is only fetched once the
+ * subscriber has requested more records than are left from the previous one, so at most one page is held in memory per subscription.
+ */
+public class QueryResultPublisher implements Flow.Publisher<JsonObject> {
+
+    private final FabricClient fabricClient;
+    private final ChaincodeID chaincodeID;
+    private final String function;
+    private final String[] args;
+    private final int pageSize;
+    private final Executor executor;
+
+    public QueryResultPublisher(FabricClient fabricClient, ChaincodeID chaincodeID, String function, String[] args, int pageSize, Executor executor) {
+        this.fabricClient = fabricClient;
+        this.chaincodeID = chaincodeID;
+        this.function = function;
+        this.args = args.clone();
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super JsonObject> subscriber) {
+        subscriber.onSubscribe(new PageSubscription(subscriber));
+    }
+
+    private final class PageSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super JsonObject> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Deque<JsonObject> page = new ArrayDeque<>();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private String bookmark = "";
+        private boolean lastPage;
+        private boolean done;
+
+        PageSubscription(Flow.Subscriber<? super JsonObject> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // signalled by the drain loop, which may be delivering records right now
+                invalidRequest = new IllegalArgumentException("Requested " + n + " records, expected a positive number");
+                schedule();
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (!cancelled && !done && invalidRequest != null) {
+                done = true;
+                page.clear();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            try {
+                while (!cancelled && !done && invalidRequest == null && demand.get() > 0) {
+                    if (page.isEmpty()) {
+                        if (lastPage) {
+                            done = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        fetchPage();
+                        continue;
+                    }
+                    subscriber.onNext(page.poll());
+                    demand.decrementAndGet();
+                }
+                if (!cancelled && !done && page.isEmpty() && lastPage) {
+                    done = true;
+                    subscriber.onComplete();
+                }
+            } catch (RuntimeException e) {
+                done = true;
+                page.clear();
+                subscriber.onError(e);
+            }
+        }
+
+        private void fetchPage() {
+            String[] pageArgs = Arrays.copyOf(args, args.length + 2);
+            pageArgs[args.length] = bookmark;
+            pageArgs[args.length + 1] = String.valueOf(pageSize);
+
+            Optional<JsonObject> response = fabricClient.query(chaincodeID, function, pageArgs, json -> json);
+            JsonObject result = response.orElseThrow(() -> new IllegalStateException(
+                    format("Query %s failed for bookmark '%s'", function, bookmark)));
+
+            for (JsonValue record : result.getJsonArray("records")) {
+                page.add((JsonObject) record);
+            }
+            bookmark = result.getString("bookmark", "");
+            lastPage = bookmark.isEmpty();
+        }
+    }
+}
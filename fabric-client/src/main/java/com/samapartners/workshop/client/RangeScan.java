@@ -0,0 +1,230 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * Scans the key range of a channel with several queries at once and returns the records in key order.
+ *
+ * The chaincode function is called with a start key, an end key and a page size, and answers with the records whose
+ * key lies in {@code [start, end)}, at most a page of them, as {@code {"records": [...], "bookmark": "..."}}. The
+ * bookmark is the key of the first record left out, empty if the range is done; an empty end key means no upper bound.
+ *
+ * The key space is first split into {@code parallelism} ranges. Whenever a range answers with a full page, the rest of
+ * it, from the bookmark on, is split again and its parts are queried right away, so the ranges follow the keys that are
+ * actually stored without knowing them beforehand. At most {@code parallelism} queries run at a time on each channel,
+ * so channels scanned together do not hold each other back, and each query starts at the next peer of its channel. Pages are kept until the reader gets to them.
+ *
+ * Keys are split as strings of printable ASCII characters; other keys are still returned, only less evenly spread.
+ */
+public class RangeScan {
+
+    private static final char MIN_CHAR = ' ';
+    private static final int RADIX = '~' - MIN_CHAR + 1;
+    private static final int DIGITS = 4;
+
+    private final FabricClient fabricClient;
+    private final ChaincodeID chaincodeID;
+    private final String function;
+    private final int parallelism;
+    private final int pageSize;
+    private final Executor executor;
+    private final Map<String, Semaphore> windows = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPeer = new AtomicInteger();
+    private final AtomicInteger queries = new AtomicInteger();
+
+    public RangeScan(FabricClient fabricClient, ChaincodeID chaincodeID, String function, int parallelism, int pageSize, Executor executor) {
+        if (parallelism < 1 || pageSize < 1) {
+            throw new IllegalArgumentException(format("Invalid parallelism %d or page size %d", parallelism, pageSize));
+        }
+        this.fabricClient = fabricClient;
+        this.chaincodeID = chaincodeID;
+        this.function = function;
+        this.parallelism = parallelism;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts the scan of a channel. The queries run in the background; the iterator blocks until the next records in
+     * key order have arrived and throws if one of their queries failed.
+     */
+    public Iterator<JsonObject> scan(String channelName) {
+        List<CompletableFuture<Page>> ranges = fetch(channelName, "", null);
+        return new PageIterator(ranges);
+    }
+
+    /**
+     * Queries each part of {@code [start, end)}, in parallel.
+     *
+     * @param end the exclusive end key, {@code null} for none
+     */
+    private List<CompletableFuture<Page>> fetch(String channelName, String start, String end) {
+        List<CompletableFuture<Page>> parts = new ArrayList<>();
+        String partStart = start;
+        for (String split : split(start, end, parallelism)) {
+            parts.add(fetchPage(channelName, partStart, split));
+            partStart = split;
+        }
+        parts.add(fetchPage(channelName, partStart, end));
+        return parts;
+    }
+
+    private CompletableFuture<Page> fetchPage(String channelName, String start, String end) {
+        Semaphore window = windows.computeIfAbsent(channelName, name -> new Semaphore(parallelism));
+        return CompletableFuture.supplyAsync(() -> {
+            JsonObject result;
+            window.acquireUninterruptibly();
+            try {
+                queries.incrementAndGet();
+                result = fabricClient.queryOnChannel(channelName, nextPeer.getAndIncrement(), chaincodeID, function,
+                        new String[]{start, end == null ? "" : end, String.valueOf(pageSize)}, json -> json)
+                        .orElseThrow(() -> new IllegalStateException(
+                                format("Query %s failed on %s for the range [%s, %s)", function, channelName, start, end)));
+            } finally {
+                window.release();
+            }
+
+            List<JsonObject> records = new ArrayList<>();
+            for (JsonValue record : result.getJsonArray("records")) {
+                records.add((JsonObject) record);
+            }
+            String bookmark = result.getString("bookmark", "");
+            return new Page(records, bookmark.isEmpty() ? Collections.emptyList() : fetch(channelName, bookmark, end));
+        }, executor);
+    }
+
+    /**
+     * Keys that cut {@code (lower, upper)} into about {@code pieces} ranges of equal width, in ascending order. The keys
+     * are interpolated on a few characters after the common prefix of the bounds, so there may be fewer of them when
+     * the bounds are close.
+     *
+     * @param upper the exclusive upper bound, {@code null} for none
+     */
+    static List<String> split(String lower, String upper, int pieces) {
+        int prefixLength = 0;
+        if (upper != null) {
+            while (prefixLength < lower.length() && prefixLength < upper.length()
+                    && lower.charAt(prefixLength) == upper.charAt(prefixLength)) {
+                prefixLength++;
+            }
+        }
+        String prefix = lower.substring(0, prefixLength);
+        long low = digits(lower, prefixLength);
+        long high = upper == null ? pow(RADIX, DIGITS) : digits(upper, prefixLength);
+
+        List<String> splits = new ArrayList<>();
+        String previous = lower;
+        for (int i = 1; i < pieces; i++) {
+            String split = prefix + key(low + (high - low) * i / pieces);
+            if (split.compareTo(previous) > 0 && (upper == null || split.compareTo(upper) < 0)) {
+                splits.add(split);
+                previous = split;
+            }
+        }
+        return splits;
+    }
+
+    private static long digits(String key, int from) {
+        long value = 0;
+        for (int i = from; i < from + DIGITS; i++) {
+            int digit = i < key.length() ? key.charAt(i) - MIN_CHAR : 0;
+            value = value * RADIX + Math.max(0, Math.min(RADIX - 1, digit));
+        }
+        return value;
+    }
+
+    private static String key(long value) {
+        char[] chars = new char[DIGITS];
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            chars[i] = (char) (MIN_CHAR + value % RADIX);
+            value /= RADIX;
+        }
+        int length = DIGITS;
+        while (length > 1 && chars[length - 1] == MIN_CHAR) {
+            length--;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return format("Range scan %s: parallelism=%d, pageSize=%d, queries=%d", function, parallelism, pageSize, queries.get());
+    }
+
+    private static final class Page {
+
+        private final List<JsonObject> records;
+        private final List<CompletableFuture<Page>> rest;
+
+        Page(List<JsonObject> records, List<CompletableFuture<Page>> rest) {
+            this.records = records;
+            this.rest = rest;
+        }
+    }
+
+    /**
+     * Walks the pages depth first: the records of a page come before the parts of its rest, which come before the
+     * ranges after it.
+     */
+    private static final class PageIterator implements Iterator<JsonObject> {
+
+        private final Deque<CompletableFuture<Page>> pending;
+        private Iterator<JsonObject> current = Collections.emptyIterator();
+
+        PageIterator(List<CompletableFuture<Page>> ranges) {
+            this.pending = new ArrayDeque<>(ranges);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && !pending.isEmpty()) {
+                Page page;
+                try {
+                    page = pending.pollFirst().join();
+                } catch (CompletionException e) {
+                    throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+                for (int i = page.rest.size() - 1; i >= 0; i--) {
+                    pending.addFirst(page.rest.get(i));
+                }
+                current = page.records.iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public JsonObject next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
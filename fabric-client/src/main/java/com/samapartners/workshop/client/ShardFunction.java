@@ -0,0 +1,25 @@
+package com.samapartners.workshop.client;
+
+import java.util.List;
+
+/**
+ * Chooses the channel that holds a ledger key.
+ */
+@FunctionalInterface
+public interface ShardFunction {
+
+    /**
+     * @param key      the ledger key, for instance a car id
+     * @param channels the names of the client's channels in configuration order, never empty
+     * @return one of {@code channels}
+     */
+    String channelFor(String key, List<String> channels);
+
+    /**
+     * Spreads keys by their hash. Adding or removing a channel moves most keys, so the channel list of a network
+     * should only change together with a migration of its data.
+     */
+    static ShardFunction hashing() {
+        return (key, channels) -> channels.get(Math.floorMod(key.hashCode(), channels.size()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.samapartners.workshop.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Wall clock time of each client startup phase. Phases may run concurrently and may be recorded long after startup,
+ * like the deferred channel initialization.
+ */
+public class StartupReport {
+
+    private final long start = System.nanoTime();
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    public <T> T time(String phase, Supplier<T> action) {
+        long phaseStart = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            record(phase, System.nanoTime() - phaseStart);
+        }
+    }
+
+    public void run(String phase, Runnable action) {
+        time(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public synchronized void record(String phase, long nanos) {
+        phases.put(phase, nanos);
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<>(phases);
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - start;
+    }
+
+    @Override
+    public synchronized String toString() {
+        List<String> lines = new ArrayList<>();
+        phases.forEach((phase, nanos) -> lines.add(String.format("  %-20s %6dms", phase, TimeUnit.NANOSECONDS.toMillis(nanos))));
+        return "Startup after " + TimeUnit.NANOSECONDS.toMillis(getElapsedNanos()) + "ms:\n" + String.join("\n", lines);
+    }
+}
@@ -0,0 +1,58 @@
+package com.samapartners.workshop.client;
+
+import com.samapartners.workshop.sample.SampleOrg;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a topology file and applies its changes to a running {@link FabricClient}.
+ *
+ * A file that cannot be read or parsed is reported and ignored, so a half written file never tears down the current endpoints.
+ */
+public class TopologyWatcher implements AutoCloseable {
+
+    private final File file;
+    private final FabricClient fabricClient;
+    private final ScheduledExecutorService scheduler;
+    private long lastModified;
+
+    public TopologyWatcher(File file, FabricClient fabricClient) {
+        this.file = file;
+        this.fabricClient = fabricClient;
+        this.lastModified = file.lastModified();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "topology-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public TopologyWatcher start(long period, TimeUnit unit) {
+        scheduler.scheduleWithFixedDelay(this::check, period, period, unit);
+        return this;
+    }
+
+    void check() {
+        long modified = file.lastModified();
+        if (modified == lastModified) {
+            return;
+        }
+
+        try {
+            SampleOrg topology = NetworkTopology.load(file);
+            fabricClient.applyTopology(topology);
+            lastModified = modified;
+            System.out.println("Applied topology from " + file);
+        } catch (RuntimeException e) {
+            System.out.println(String.format("Ignoring topology change in %s: %s", file, e.getMessage()));
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
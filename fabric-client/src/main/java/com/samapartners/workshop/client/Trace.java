@@ -0,0 +1,143 @@
+package com.samapartners.workshop.client;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The timeline of one sampled query or invocation.
+ *
+ * Client spans are measured with {@link System#nanoTime()} relative to the start of the trace. Chaincode spans come
+ * with wall clock timestamps of the peer and are placed on the timeline by those, so they are only as exact as the
+ * clocks of client and peer agree.
+ */
+public final class Trace {
+
+    private final String traceId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final String channel;
+    private final String chaincode;
+    private final String function;
+    private final long startEpochMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+    private volatile String transactionId;
+
+    Trace(String channel, String chaincode, String function) {
+        this.channel = channel;
+        this.chaincode = chaincode;
+        this.function = function;
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getChaincode() {
+        return chaincode;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    void setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * Records a client span from {@code startNanos} until now.
+     */
+    void span(String name, long startNanos) {
+        long end = System.nanoTime();
+        synchronized (spans) {
+            spans.add(new Span(name, startNanos - this.startNanos, end - startNanos));
+        }
+    }
+
+    /**
+     * The transient data of the proposal with the trace id added, for the chaincode to record its span under.
+     */
+    Map<String, byte[]> withContext(Map<String, byte[]> transientData) {
+        Map<String, byte[]> traced = new HashMap<>(transientData);
+        traced.put(Tracer.TRACE_CONTEXT, traceId.getBytes(UTF_8));
+        return Collections.unmodifiableMap(traced);
+    }
+
+    /**
+     * The timeline as JSON, client and chaincode spans ordered by their start in microseconds after the trace start.
+     */
+    JsonObject toJson(JsonArray chaincodeSpans) {
+        List<JsonObject> timeline = new ArrayList<>();
+        synchronized (spans) {
+            for (Span span : spans) {
+                timeline.add(Json.createObjectBuilder()
+                        .add("name", span.name)
+                        .add("source", "client")
+                        .add("start", TimeUnit.NANOSECONDS.toMicros(span.offsetNanos))
+                        .add("duration", TimeUnit.NANOSECONDS.toMicros(span.durationNanos))
+                        .build());
+            }
+        }
+        for (JsonValue value : chaincodeSpans) {
+            JsonObject span = (JsonObject) value;
+            JsonObjectBuilder builder = Json.createObjectBuilder().add("source", "chaincode");
+            for (Map.Entry<String, JsonValue> field : span.entrySet()) {
+                if ("start".equals(field.getKey())) {
+                    builder.add("start", ((JsonNumber) field.getValue()).longValue() - startEpochMicros);
+                } else {
+                    builder.add(field.getKey(), field.getValue());
+                }
+            }
+            timeline.add(builder.build());
+        }
+        timeline.sort(Comparator.comparingLong(span -> span.getJsonNumber("start").longValue()));
+
+        JsonArrayBuilder array = Json.createArrayBuilder();
+        timeline.forEach(array::add);
+        JsonObjectBuilder trace = Json.createObjectBuilder()
+                .add("traceId", traceId)
+                .add("channel", channel)
+                .add("chaincode", chaincode)
+                .add("function", function)
+                .add("start", startEpochMicros);
+        if (transactionId != null) {
+            trace.add("transactionId", transactionId);
+        }
+        return trace.add("spans", array).build();
+    }
+
+    private static final class Span {
+
+        private final String name;
+        private final long offsetNanos;
+        private final long durationNanos;
+
+        Span(String name, long offsetNanos, long durationNanos) {
+            this.name = name;
+            this.offsetNanos = offsetNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
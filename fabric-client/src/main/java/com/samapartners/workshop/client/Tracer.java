@@ -0,0 +1,125 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Samples queries and invocations for end-to-end tracing.
+ *
+ * A sampled call gets a {@link Trace}, and its function the suffix {@value #TRACE_SUFFIX}, which tells the chaincode to
+ * record its execution; the trace id travels in the transient entry {@value #TRACE_CONTEXT}. Chaincodes on shims before
+ * 1.1 cannot read the transient map and keep their spans under the transaction id, which the trace records as well.
+ * The client records signing, endorsement, verification, ordering, commit and decoding. Finished traces are kept until
+ * they are exported, at most {@code maxTraces} of them, the oldest being dropped first. Calls that are not sampled cost
+ * one random number and nothing on the peer. The suffix is only understood by chaincodes built on
+ * {@code InstrumentedChaincode}.
+ */
+public class Tracer {
+
+    public static final String SAMPLE_PROPERTY = "workshop.trace.sample";
+    static final String TRACE_CONTEXT = "trace-context";
+    static final String TRACES_FUNCTION = "__traces";
+    static final String TRACE_SUFFIX = "#trace";
+
+    private final double sampleRate;
+    private final int maxTraces;
+    private final Queue<Trace> finished = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger finishedCount = new AtomicInteger();
+
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param sampleRate fraction of calls to trace, between 0 for none and 1 for all
+     */
+    public Tracer(double sampleRate, int maxTraces) {
+        this.sampleRate = sampleRate;
+        this.maxTraces = maxTraces;
+    }
+
+    /**
+     * Samples the fraction of calls given by the {@value #SAMPLE_PROPERTY} system property, none if it is not set.
+     */
+    public static Tracer fromSystemProperty() {
+        String value = System.getProperty(SAMPLE_PROPERTY);
+        double sampleRate = 0;
+        if (value != null && !value.isEmpty()) {
+            try {
+                sampleRate = Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                System.out.println(String.format("Ignoring invalid %s=%s", SAMPLE_PROPERTY, value));
+            }
+        }
+        return new Tracer(sampleRate, 10_000);
+    }
+
+    /**
+     * @return the trace of the call, or {@code null} if it is not sampled
+     */
+    Trace start(String channel, ChaincodeID chaincodeID, String function) {
+        if (sampleRate <= 0 || TRACES_FUNCTION.equals(function) || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return null;
+        }
+        sampled.incrementAndGet();
+        return new Trace(channel, chaincodeID == null ? "" : chaincodeID.getName(), function);
+    }
+
+    void finish(Trace trace) {
+        if (trace == null) {
+            return;
+        }
+        finished.add(trace);
+        if (finishedCount.incrementAndGet() > maxTraces && finished.poll() != null) {
+            finishedCount.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Appends the finished traces to {@code file}, one JSON timeline per line, and forgets them.
+     *
+     * @param chaincodeSpans fetches the spans the chaincode recorded for the traces, all at once; traces left out of the
+     *                       map have none
+     * @return the number of traces written
+     */
+    public int export(Path file, Function<List<Trace>, Map<Trace, JsonArray>> chaincodeSpans) throws IOException {
+        List<Trace> traces = new ArrayList<>();
+        for (Trace trace = finished.poll(); trace != null; trace = finished.poll()) {
+            finishedCount.decrementAndGet();
+            traces.add(trace);
+        }
+        Map<Trace, JsonArray> spans = traces.isEmpty() ? Collections.emptyMap() : chaincodeSpans.apply(traces);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Trace trace : traces) {
+                writer.write(trace.toJson(spans.getOrDefault(trace, JsonValue.EMPTY_JSON_ARRAY)).toString());
+                writer.newLine();
+            }
+        }
+        return traces.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Tracer: sampleRate=%s, sampled=%d, pending=%d, dropped=%d",
+                sampleRate, sampled.get(), finishedCount.get(), dropped.get());
+    }
+}
@@ -85,6 +85,21 @@ public class SampleOrg {
         eventHubLocations.put(name, location);
     }
 
+    public void removePeerLocation(String name) {
+
+        peerLocations.remove(name);
+    }
+
+    public void removeOrdererLocation(String name) {
+
+        ordererLocations.remove(name);
+    }
+
+    public void removeEventHubLocation(String name) {
+
+        eventHubLocations.remove(name);
+    }
+
     public String getPeerLocation(String name) {
         return peerLocations.get(name);
 
@@ -154,6 +169,10 @@ public class SampleOrg {
         peers.add(peer);
     }
 
+    public void removePeer(Peer peer) {
+        peers.remove(peer);
+    }
+
     public void setCAProperties(Properties CAProperties) {
         this.caProperties = CAProperties;
     }
@@ -62,8 +62,12 @@ public class SampleStore {
     }
 
     private Properties loadProperties() {
+        StoreReadEvent event = new StoreReadEvent();
+        event.begin();
         Properties properties = new Properties();
+        boolean found = false;
         try (InputStream input = new FileInputStream(file)) {
+            found = true;
             properties.load(input);
             input.close();
         } catch (FileNotFoundException e) {
@@ -72,6 +76,13 @@ public class SampleStore {
             logger.warn(String.format("Could not load keyvalue store from file \"%s\", reason:%s",
                     file, e.getMessage()));
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.found = found;
+            event.bytes = found ? new File(file).length() : 0;
+            event.commit();
+        }
 
         return properties;
     }
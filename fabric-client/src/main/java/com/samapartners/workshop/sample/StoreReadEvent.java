@@ -0,0 +1,28 @@
+package com.samapartners.workshop.sample;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a {@link SampleStore} reading its file.
+ */
+@Name("com.samapartners.workshop.StoreRead")
+@Label("Sample Store Read")
+@Description("Load of the key value store file")
+@Category({"Workshop", "Sample Store"})
+class StoreReadEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Found")
+    boolean found;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,16 @@
+package org.hyperledger.fabric.sdk;
+
+import org.hyperledger.fabric.protos.common.Common;
+
+/**
+ * Wraps blocks the client stored itself, for the package private {@link BlockInfo} constructor.
+ */
+public final class Blocks {
+
+    private Blocks() {
+    }
+
+    public static BlockInfo blockInfo(Common.Block block) {
+        return new BlockInfo(block);
+    }
+}
@@ -0,0 +1,66 @@
+package org.hyperledger.fabric.sdk;
+
+import org.hyperledger.fabric.sdk.exception.EventHubException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.transaction.TransactionContext;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+
+/**
+ * Changes the endpoints of a channel after it was initialized, which the public API of the SDK does not support: it
+ * cannot detach peers, orderers or event hubs, and connects event hubs only while initializing. The collections of
+ * endpoints are private to {@link Channel}, so they are edited reflectively, which ties this class to SDK 1.0.1.
+ */
+public final class ChannelEndpoints {
+
+    private ChannelEndpoints() {
+    }
+
+    /**
+     * Detaches a peer from its channel and closes its connection.
+     */
+    public static void remove(Channel channel, Peer peer) {
+        endpoints(channel, "peers").remove(peer);
+        peer.unsetChannel();
+        peer.shutdown(true);
+    }
+
+    /**
+     * Detaches an orderer from its channel and closes its connection.
+     */
+    public static void remove(Channel channel, Orderer orderer) {
+        endpoints(channel, "orderers").remove(orderer);
+        orderer.unsetChannel();
+        orderer.shutdown(true);
+    }
+
+    /**
+     * Detaches an event hub from its channel and closes its connection, if it ever opened one.
+     */
+    public static void remove(Channel channel, EventHub eventHub) {
+        endpoints(channel, "eventHubs").remove(eventHub);
+        // the SDK fails to shut down an event hub that never tried to connect
+        if (eventHub.getLastConnectedAttempt() != 0) {
+            eventHub.shutdown();
+        }
+    }
+
+    /**
+     * Adds an event hub to an initialized channel and connects it as the channel's initialization would have.
+     */
+    public static void connect(Channel channel, HFClient client, EventHub eventHub) throws InvalidArgumentException, EventHubException {
+        channel.addEventHub(eventHub);
+        eventHub.connect(new TransactionContext(channel, client.getUserContext(), client.getCryptoSuite()));
+    }
+
+    private static Collection<?> endpoints(Channel channel, String fieldName) {
+        try {
+            Field field = Channel.class.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return (Collection<?>) field.get(channel);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unsupported SDK version, cannot detach " + fieldName + " from channel " + channel.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.hyperledger.fabric.sdk;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.StatusRuntimeException;
+import org.hyperledger.fabric.protos.peer.FabricProposal;
+import org.hyperledger.fabric.protos.peer.FabricProposalResponse;
+import org.hyperledger.fabric.sdk.exception.CryptoException;
+import org.hyperledger.fabric.sdk.exception.InvalidArgumentException;
+import org.hyperledger.fabric.sdk.exception.PeerException;
+import org.hyperledger.fabric.sdk.exception.ProposalException;
+import org.hyperledger.fabric.sdk.security.CryptoSuite;
+import org.hyperledger.fabric.sdk.transaction.ProposalBuilder;
+import org.hyperledger.fabric.sdk.transaction.TransactionContext;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static java.lang.String.format;
+
+/**
+ * The two halves of {@link Channel#sendTransactionProposal(TransactionRequest, Collection)}: building and signing the
+ * proposal, and sending it to the peers. Keeping them apart lets signing run on its own threads and crypto instances
+ * while other proposals are on the network.
+ *
+ * Lives in the SDK package for the package private {@link Peer#sendProposalAsync} and
+ * {@link ProposalResponse#setPeer}; the responses are built like the channel builds them.
+ */
+public final class ProposalStages {
+
+    private ProposalStages() {
+    }
+
+    public static final class SignedRequest {
+
+        private final TransactionContext context;
+        private final FabricProposal.SignedProposal proposal;
+
+        private SignedRequest(TransactionContext context, FabricProposal.SignedProposal proposal) {
+            this.context = context;
+            this.proposal = proposal;
+        }
+
+        public String getTransactionID() {
+            return context.getTxID();
+        }
+
+        public FabricProposal.SignedProposal getProposal() {
+            return proposal;
+        }
+
+        /**
+         * Whether the request asked for the endorsements to be verified.
+         */
+        public boolean doVerify() {
+            return context.getVerify();
+        }
+    }
+
+    /**
+     * Builds the proposal of the request for {@code peers} and signs it with {@code cryptoSuite}.
+     *
+     * Checks the channel, the peers and the request like the channel does; in particular a request can only be
+     * submitted once, so another attempt needs a new request.
+     */
+    public static SignedRequest sign(Channel channel, HFClient client, CryptoSuite cryptoSuite, TransactionRequest request, Collection<Peer> peers) throws InvalidArgumentException, ProposalException {
+        checkChannel(channel, client);
+        checkPeers(channel, peers);
+        if (request == null) {
+            throw new InvalidArgumentException("sendProposal queryProposalRequest is null");
+        }
+        request.setSubmitted();
+        User user = request.getUserContext() != null ? request.getUserContext() : client.getUserContext();
+        User.userContextCheck(user);
+
+        TransactionContext context = new TransactionContext(channel, user, cryptoSuite);
+        context.verify(request.doVerify());
+        context.setProposalWaitTime(request.getProposalWaitTime());
+
+        FabricProposal.Proposal proposal = ProposalBuilder.newBuilder().context(context).request(request).build();
+        try {
+            return new SignedRequest(context, FabricProposal.SignedProposal.newBuilder()
+                    .setProposalBytes(proposal.toByteString())
+                    .setSignature(context.signByteString(proposal.toByteArray()))
+                    .build());
+        } catch (CryptoException e) {
+            throw new ProposalException(e);
+        }
+    }
+
+    private static void checkChannel(Channel channel, HFClient client) throws InvalidArgumentException {
+        if (channel.isShutdown()) {
+            throw new InvalidArgumentException(format("Channel %s has been shutdown.", channel.getName()));
+        }
+        if (!channel.isInitialized()) {
+            throw new InvalidArgumentException(format("Channel %s has not been initialized.", channel.getName()));
+        }
+        User.userContextCheck(client.getUserContext());
+    }
+
+    private static void checkPeers(Channel channel, Collection<Peer> peers) throws InvalidArgumentException {
+        if (peers == null) {
+            throw new InvalidArgumentException("Collection of peers is null.");
+        }
+        if (peers.isEmpty()) {
+            throw new InvalidArgumentException("Collection of peers is empty.");
+        }
+        for (Peer peer : peers) {
+            if (peer == null) {
+                throw new InvalidArgumentException("Peer value is null.");
+            }
+            if (!channel.isSystemChannel() && !channel.getPeers().contains(peer)) {
+                throw new InvalidArgumentException("Channel " + channel.getName() + " does not have peer " + peer.getName());
+            }
+            if (peer.getChannel() != channel) {
+                throw new InvalidArgumentException("Peer " + peer.getName() + " not set for channel " + channel.getName());
+            }
+        }
+    }
+
+    /**
+     * Sends a signed proposal to all peers at once and waits for their answers up to the request's proposal wait time.
+     * A peer that fails or does not answer in time gets a failed response without a protobuf payload. Each response
+     * carries the time its own peer took, see {@link #latencyNanos(ProposalResponse)}.
+     *
+     * The endorsements are not verified here, see {@link #verify(ProposalResponse, CryptoSuite)}.
+     */
+    public static Collection<ProposalResponse> send(SignedRequest request, Collection<Peer> peers) throws ProposalException {
+        return send(request, peers, System::nanoTime);
+    }
+
+    /**
+     * Like {@link #send(SignedRequest, Collection)}, measuring the latencies with {@code nanoClock}; the wait for the
+     * answers is still bounded in real time.
+     */
+    public static Collection<ProposalResponse> send(SignedRequest request, Collection<Peer> peers, LongSupplier nanoClock) throws ProposalException {
+        TransactionContext context = request.context;
+        Map<Peer, Future<FabricProposalResponse.ProposalResponse>> pending = new LinkedHashMap<>();
+        Map<Peer, Long> sent = new LinkedHashMap<>();
+        Map<Peer, AtomicLong> answered = new LinkedHashMap<>();
+        for (Peer peer : peers) {
+            AtomicLong answeredAt = new AtomicLong();
+            sent.put(peer, nanoClock.getAsLong());
+            answered.put(peer, answeredAt);
+            try {
+                ListenableFuture<FabricProposalResponse.ProposalResponse> future = peer.sendProposalAsync(request.proposal);
+                future.addListener(() -> answeredAt.set(nanoClock.getAsLong()), MoreExecutors.directExecutor());
+                pending.put(peer, future);
+            } catch (PeerException | InvalidArgumentException e) {
+                answeredAt.set(nanoClock.getAsLong());
+                CompletableFuture<FabricProposalResponse.ProposalResponse> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                pending.put(peer, failed);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(context.getProposalWaitTime());
+        List<ProposalResponse> responses = new ArrayList<>(pending.size());
+        for (Map.Entry<Peer, Future<FabricProposalResponse.ProposalResponse>> answer : pending.entrySet()) {
+            Peer peer = answer.getKey();
+            FabricProposalResponse.ProposalResponse fabricResponse = null;
+            String message;
+            int status = ChaincodeResponse.Status.FAILURE.getStatus();
+            try {
+                fabricResponse = answer.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                message = fabricResponse.getResponse().getMessage();
+                status = fabricResponse.getResponse().getStatus();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                message = format("Sending proposal to %s failed because of interruption", peer.getName());
+            } catch (TimeoutException e) {
+                answer.getValue().cancel(true);
+                message = format("Sending proposal to %s failed because of timeout(%d milliseconds) expiration",
+                        peer.getName(), context.getProposalWaitTime());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                message = cause instanceof StatusRuntimeException
+                        ? format("Sending proposal to %s failed because of: gRPC failure=%s", peer.getName(), ((StatusRuntimeException) cause).getStatus())
+                        : format("Sending proposal to %s failed because of: %s", peer.getName(), cause.getMessage());
+            }
+
+            // the listener may run just after get returns, or never for a peer that timed out
+            long answeredAt = answered.get(peer).get();
+            TimedProposalResponse response = new TimedProposalResponse(context.getTxID(), context.getChannelID(), status, message,
+                    (answeredAt == 0 ? nanoClock.getAsLong() : answeredAt) - sent.get(peer));
+            response.setProposalResponse(fabricResponse);
+            response.setProposal(request.proposal);
+            response.setPeer(peer);
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    private static final class TimedProposalResponse extends ProposalResponse {
+
+        private final long latencyNanos;
+
+        TimedProposalResponse(String transactionID, String chaincodeID, int status, String message, long latencyNanos) {
+            super(transactionID, chaincodeID, status, message);
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    /**
+     * The time the peer of a response sent by {@link #send(SignedRequest, Collection)} took to answer or fail, up to
+     * the proposal wait time; -1 for responses of the channel.
+     */
+    public static long latencyNanos(ProposalResponse response) {
+        return response instanceof TimedProposalResponse ? ((TimedProposalResponse) response).latencyNanos : -1;
+    }
+
+    /**
+     * Verifies the endorsement of a response, unless the peer did not answer.
+     */
+    public static void verify(ProposalResponse response, CryptoSuite verifier) {
+        if (response.getProposalResponse() != null) {
+            response.verify(verifier);
+        }
+    }
+}
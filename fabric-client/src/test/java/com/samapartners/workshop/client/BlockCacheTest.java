@@ -0,0 +1,182 @@
+package com.samapartners.workshop.client;
+
+import com.google.protobuf.ByteString;
+import org.hyperledger.fabric.protos.common.Common;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlockCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private BlockCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath();
+        cache = BlockCache.open(directory, 1 << 20);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void findsBlocksByNumberAndTransactionId() throws IOException {
+        cache.put(block(0, "tx-0"));
+        cache.put(block(1, "tx-1a", "tx-1b"));
+
+        assertEquals(0, cache.block(0).get().getBlockNumber());
+        assertEquals(1, cache.block(1).get().getBlockNumber());
+        assertEquals(1, cache.blockByTransactionId("tx-1b").get().getBlockNumber());
+        assertFalse(cache.block(2).isPresent());
+        assertFalse(cache.blockByTransactionId("tx-2").isPresent());
+    }
+
+    @Test
+    public void indexesBlockNumbersBeyondIntRange() throws IOException {
+        long number = (1L << 27) + 5;
+        cache.put(block(number, "tx-high"));
+        cache.put(block(Integer.MAX_VALUE + 7L, "tx-higher"));
+
+        assertEquals(number, cache.block(number).get().getBlockNumber());
+        assertEquals(Integer.MAX_VALUE + 7L, cache.blockByTransactionId("tx-higher").get().getBlockNumber());
+        assertFalse(cache.block(5).isPresent());
+    }
+
+    @Test
+    public void keepsTheIndexFilesBounded() throws IOException {
+        cache.put(block(0, "tx-0"));
+        long indexBytes = indexBytes();
+
+        cache.put(block(50_000_000L, "tx-far"));
+
+        assertEquals(indexBytes, indexBytes());
+        assertTrue(cache.block(0).isPresent());
+        assertTrue(cache.block(50_000_000L).isPresent());
+    }
+
+    @Test
+    public void keepsBlocksAcrossRestarts() throws IOException {
+        for (long number = 0; number < 10; number++) {
+            cache.put(block(number, "tx-" + number));
+        }
+        cache.close();
+
+        cache = BlockCache.open(directory, 1 << 20);
+        assertEquals(7, cache.block(7).get().getBlockNumber());
+        assertEquals(3, cache.blockByTransactionId("tx-3").get().getBlockNumber());
+    }
+
+    @Test
+    public void cutsOffARecordThatWasNotFinished() throws IOException {
+        for (long number = 0; number < 3; number++) {
+            cache.put(block(number, "tx-" + number));
+        }
+        cache.close();
+        Path segment = segmentFiles().get(segmentFiles().size() - 1);
+        long complete = Files.size(segment);
+        try (FileChannel file = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer partial = ByteBuffer.allocate(Integer.BYTES + 3);
+            partial.putInt(1_000).put(new byte[3]).flip();
+            file.write(partial);
+        }
+
+        cache = BlockCache.open(directory, 1 << 20);
+        assertEquals(complete, Files.size(segment));
+        cache.put(block(3, "tx-3"));
+
+        assertEquals(2, cache.block(2).get().getBlockNumber());
+        assertEquals(3, cache.block(3).get().getBlockNumber());
+    }
+
+    @Test
+    public void rollsSegmentsAndDeletesTheOldestBeyondRetention() throws IOException {
+        cache.close();
+        int blockBytes = block(10, "tx-10").getSerializedSize() + Integer.BYTES;
+        long retentionBytes = 8L * blockBytes;
+        cache = BlockCache.open(directory, retentionBytes);
+
+        for (long number = 0; number < 40; number++) {
+            cache.put(block(number, "tx-" + number));
+        }
+
+        long storedBytes = 0;
+        for (Path segment : segmentFiles()) {
+            storedBytes += Files.size(segment);
+        }
+        // the retention is checked when a segment is started, which then fills up to a quarter of it
+        assertTrue(storedBytes <= retentionBytes + retentionBytes / 4);
+        assertTrue(segmentFiles().size() > 1);
+        assertFalse(cache.block(0).isPresent());
+        assertFalse(cache.blockByTransactionId("tx-0").isPresent());
+        assertEquals(39, cache.block(39).get().getBlockNumber());
+        assertEquals(38, cache.blockByTransactionId("tx-38").get().getBlockNumber());
+    }
+
+    @Test
+    public void storesABlockAgainOnceItsSegmentWasDeleted() throws IOException {
+        cache.close();
+        int blockBytes = block(10, "tx-10").getSerializedSize() + Integer.BYTES;
+        cache = BlockCache.open(directory, 8L * blockBytes);
+        for (long number = 0; number < 40; number++) {
+            cache.put(block(number, "tx-" + number));
+        }
+
+        cache.put(block(0, "tx-0"));
+
+        assertEquals(0, cache.block(0).get().getBlockNumber());
+    }
+
+    private long indexBytes() throws IOException {
+        return Files.size(directory.resolve("numbers.index")) + Files.size(directory.resolve("transactions.index"));
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.blocks")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static Common.Block block(long number, String... transactionIds) {
+        Common.BlockData.Builder data = Common.BlockData.newBuilder();
+        for (String transactionId : transactionIds) {
+            Common.ChannelHeader channelHeader = Common.ChannelHeader.newBuilder()
+                    .setType(Common.HeaderType.ENDORSER_TRANSACTION_VALUE)
+                    .setChannelId("mychannel")
+                    .setTxId(transactionId)
+                    .build();
+            Common.Payload payload = Common.Payload.newBuilder()
+                    .setHeader(Common.Header.newBuilder().setChannelHeader(channelHeader.toByteString()))
+                    .build();
+            data.addData(Common.Envelope.newBuilder().setPayload(payload.toByteString()).build().toByteString());
+        }
+        return Common.Block.newBuilder()
+                .setHeader(Common.BlockHeader.newBuilder().setNumber(number).setDataHash(ByteString.EMPTY))
+                .setData(data)
+                .build();
+    }
+}
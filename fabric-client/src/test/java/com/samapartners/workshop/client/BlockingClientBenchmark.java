@@ -0,0 +1,79 @@
+package com.samapartners.workshop.client;
+
+import org.hyperledger.fabric.sdk.ChaincodeID;
+
+import javax.json.JsonValue;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares request handlers running on virtual threads against a fixed pool of platform threads.
+ *
+ * Usage: {@code BlockingClientBenchmark [requests] [platformThreads] [simulatedLatencyMillis]}. When a simulated latency
+ * is given the calls only sleep for that long, otherwise the client is bootstrapped and every handler runs a query.
+ */
+public class BlockingClientBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int platformThreads = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long simulatedLatency = args.length > 2 ? Long.parseLong(args[2]) : -1;
+
+        Runnable call;
+        if (simulatedLatency >= 0) {
+            call = () -> sleep(simulatedLatency);
+        } else {
+            FabricClient fabricClient = new FabricClient();
+            fabricClient.runAll();
+            BlockingFabricClient client = new BlockingFabricClient(fabricClient, Duration.ofSeconds(20), Duration.ofMinutes(2));
+            ChaincodeID chaincodeID = ChaincodeID.newBuilder().setName("demo").setVersion("11").build();
+            call = () -> client.query(chaincodeID, "get", new String[]{"test"}, JsonValue::toString);
+        }
+
+        // warm up both paths before measuring
+        run("warmup", Executors.newVirtualThreadPerTaskExecutor(), Math.min(requests, 1_000), call);
+        run("platform(" + platformThreads + ")", Executors.newFixedThreadPool(platformThreads), requests, call);
+        run("virtual", Executors.newVirtualThreadPerTaskExecutor(), requests, call);
+    }
+
+    private static void run(String name, ExecutorService executor, int requests, Runnable call) throws Exception {
+        long[] latencies = new long[requests];
+        List<Future<?>> futures = new ArrayList<>(requests);
+
+        long start = System.nanoTime();
+        try (executor) {
+            for (int i = 0; i < requests; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    long callStart = System.nanoTime();
+                    call.run();
+                    latencies[index] = System.nanoTime() - callStart;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%s: requests=%d, time=%dms, throughput=%.0f req/s, p50=%dms, p99=%dms",
+                name, requests, TimeUnit.NANOSECONDS.toMillis(elapsed), requests / (elapsed / 1e9),
+                TimeUnit.NANOSECONDS.toMillis(latencies[requests / 2]),
+                TimeUnit.NANOSECONDS.toMillis(latencies[(int) (requests * 0.99)])));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.samapartners.workshop.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointHealthTest {
+
+    private static final String PEER = "peer0@grpc://localhost:7051";
+
+    private final AtomicLong clock = new AtomicLong();
+    private EndpointHealth health;
+
+    @Before
+    public void setUp() {
+        health = new EndpointHealth(clock::get, 2.0, 500, 3, 10_000);
+    }
+
+    @Test
+    public void usesTheCeilingUntilEnoughCallsWereSeen() {
+        for (int i = 0; i < 9; i++) {
+            health.recordSuccess(PEER, millis(100));
+        }
+        assertEquals(20_000, health.timeoutMillis(PEER, 20_000));
+    }
+
+    @Test
+    public void adaptsTheTimeoutToThePercentile() {
+        for (int i = 0; i < 98; i++) {
+            health.recordSuccess(PEER, millis(400));
+        }
+        health.recordSuccess(PEER, millis(1_000));
+        health.recordSuccess(PEER, millis(1_000));
+
+        assertEquals(2_000, health.timeoutMillis(PEER, 20_000));
+        assertEquals(1_500, health.timeoutMillis(PEER, 1_500));
+    }
+
+    @Test
+    public void keepsTheTimeoutAboveTheMinimum() {
+        for (int i = 0; i < 20; i++) {
+            health.recordSuccess(PEER, millis(10));
+        }
+        assertEquals(500, health.timeoutMillis(PEER, 20_000));
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        health.recordFailure(PEER, millis(10));
+        health.recordFailure(PEER, millis(10));
+        health.recordSuccess(PEER, millis(10));
+        health.recordFailure(PEER, millis(10));
+        health.recordFailure(PEER, millis(10));
+        assertEquals(EndpointHealth.State.CLOSED, health.state(PEER));
+
+        health.recordFailure(PEER, millis(10));
+        assertEquals(EndpointHealth.State.OPEN, health.state(PEER));
+        assertFalse(health.allowRequest(PEER));
+    }
+
+    @Test
+    public void letsOneProbeThroughAndClosesOnSuccess() {
+        open();
+        clock.addAndGet(millis(9_999));
+        assertEquals(EndpointHealth.State.OPEN, health.state(PEER));
+
+        clock.addAndGet(millis(1));
+        assertEquals(EndpointHealth.State.HALF_OPEN, health.state(PEER));
+        assertTrue(health.allowRequest(PEER));
+        assertFalse(health.allowRequest(PEER));
+
+        health.recordSuccess(PEER, millis(10));
+        assertEquals(EndpointHealth.State.CLOSED, health.state(PEER));
+        assertTrue(health.allowRequest(PEER));
+        assertTrue(health.allowRequest(PEER));
+    }
+
+    @Test
+    public void reopensWhenTheProbeFails() {
+        open();
+        clock.addAndGet(millis(10_000));
+        assertTrue(health.allowRequest(PEER));
+
+        health.recordFailure(PEER, millis(10));
+        assertEquals(EndpointHealth.State.OPEN, health.state(PEER));
+        assertFalse(health.allowRequest(PEER));
+
+        clock.addAndGet(millis(10_000));
+        assertEquals(EndpointHealth.State.HALF_OPEN, health.state(PEER));
+    }
+
+    @Test
+    public void letsTheNextProbeThroughAfterAnAbortedOne() {
+        open();
+        clock.addAndGet(millis(10_000));
+        assertTrue(health.allowRequest(PEER));
+
+        health.recordAborted(PEER);
+        assertEquals(EndpointHealth.State.HALF_OPEN, health.state(PEER));
+        assertTrue(health.allowRequest(PEER));
+    }
+
+    private void open() {
+        for (int i = 0; i < 3; i++) {
+            health.recordFailure(PEER, millis(10));
+        }
+        assertEquals(EndpointHealth.State.OPEN, health.state(PEER));
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
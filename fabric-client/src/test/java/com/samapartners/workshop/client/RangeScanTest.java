@@ -0,0 +1,70 @@
+package com.samapartners.workshop.client;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RangeScanTest {
+
+    @Test
+    public void splitsTheWholeKeySpace() {
+        List<String> splits = RangeScan.split("", null, 4);
+
+        assertEquals(3, splits.size());
+        assertOrderedWithin("", null, splits);
+    }
+
+    @Test
+    public void splitsAfterTheCommonPrefix() {
+        List<String> splits = RangeScan.split("CAR0100", "CAR0200", 4);
+
+        assertEquals(3, splits.size());
+        assertOrderedWithin("CAR0100", "CAR0200", splits);
+        for (String split : splits) {
+            assertTrue(split, split.startsWith("CAR0"));
+        }
+    }
+
+    @Test
+    public void splitsUpToTheEndWithoutUpperBound() {
+        List<String> splits = RangeScan.split("CAR5", null, 4);
+
+        assertEquals(3, splits.size());
+        assertOrderedWithin("CAR5", null, splits);
+    }
+
+    @Test
+    public void returnsFewerSplitsWhenTheBoundsAreClose() {
+        assertTrue(RangeScan.split("CAR1", "CAR1 ", 4).isEmpty());
+        assertEquals(1, RangeScan.split("CAR1", "CAR1   !", 8).size());
+    }
+
+    @Test
+    public void keepsNonPrintableKeysWithinTheBounds() {
+        String lower = "\u0001";
+        String upper = "\u00ff\u00ff";
+        assertOrderedWithin(lower, upper, RangeScan.split(lower, upper, 4));
+
+        lower = "CAR\u0000";
+        upper = "CAR\u00e9";
+        List<String> splits = RangeScan.split(lower, upper, 4);
+        assertOrderedWithin(lower, upper, splits);
+        for (String split : splits) {
+            assertTrue(split, split.startsWith("CAR"));
+        }
+    }
+
+    private static void assertOrderedWithin(String lower, String upper, List<String> splits) {
+        String previous = lower;
+        for (String split : splits) {
+            assertTrue(split + " after " + previous, split.compareTo(previous) > 0);
+            if (upper != null) {
+                assertTrue(split + " before " + upper, split.compareTo(upper) < 0);
+            }
+            previous = split;
+        }
+    }
+}